@@ -2,6 +2,7 @@ plugins {
     `java-library`
     id("io.papermc.paperweight.userdev") version "1.5.6"
     id("com.github.johnrengelman.shadow") version "8.1.1"
+    id("me.champeau.jmh") version "0.7.1"
 }
 
 group = "net.okocraft.foliaregionvisualizer"
@@ -20,6 +21,11 @@ repositories {
 dependencies {
     paperweight.foliaDevBundle("$mcVersion-R0.1-SNAPSHOT")
     compileOnly("com.github.BlueMap-Minecraft:BlueMapAPI:2.6.1")
+
+    // the merge algorithms only need these, so the benchmarks run without a server
+    jmh("com.github.BlueMap-Minecraft:BlueMapAPI:2.6.1")
+    jmh("it.unimi.dsi:fastutil:8.5.12")
+    jmh("org.jetbrains:annotations:24.0.1")
 }
 
 java {
@@ -27,6 +33,12 @@ java {
     targetCompatibility = JavaVersion.VERSION_17
 }
 
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
+
 tasks {
     reobfJar {
         outputJar.set(
@@ -44,6 +56,20 @@ tasks {
         options.release.set(17)
     }
 
+    register<JavaExec>("verifyMerge") {
+        group = "verification"
+        description = "Checks the merge algorithms the plugin uses against randomly generated regions."
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("net.okocraft.foliaregionvisualizer.MergeVerifier")
+    }
+
+    register<JavaExec>("replayMerge") {
+        group = "verification"
+        description = "Replays recorded or generated regions through the merge algorithms."
+        classpath = sourceSets["jmh"].runtimeClasspath
+        mainClass.set("net.okocraft.foliaregionvisualizer.MergeReplay")
+    }
+
     processResources {
         filteringCharset = Charsets.UTF_8.name()
 
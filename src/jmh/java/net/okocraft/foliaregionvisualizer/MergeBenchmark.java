@@ -0,0 +1,78 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"square", "hole", "wtf", "diamond"})
+    private String shape;
+
+    @Param({"5", "20", "50"})
+    private int radius;
+
+    private LongSet sections;
+    private SectionBitmap bitmap;
+
+    @Setup
+    public void setup() {
+        this.sections = switch (this.shape) {
+            case "square" -> net.okocraft.foliaregionvisualizer.Benchmark.createSections(this.radius);
+            case "hole" -> net.okocraft.foliaregionvisualizer.Benchmark.createSectionsWithHole(this.radius);
+            case "wtf" -> net.okocraft.foliaregionvisualizer.Benchmark.createWTFSections(this.radius);
+            case "diamond" -> net.okocraft.foliaregionvisualizer.Benchmark.createDiamondSections(this.radius);
+            default -> throw new IllegalArgumentException("Unknown shape: " + this.shape);
+        };
+        this.bitmap = SectionBitmap.of(this.sections);
+    }
+
+    @Benchmark
+    public List<Vector2d> siro() {
+        return FoliaRegionSiro.merge(this.sections);
+    }
+
+    @Benchmark
+    public List<Vector2d> lazy() {
+        return FoliaRegionLazy.merge(this.sections);
+    }
+
+    @Benchmark
+    public List<Vector2d> lazy2() {
+        return FoliaRegionLazy2.merge(this.sections);
+    }
+
+    @Benchmark
+    public List<Vector2d> scanline() {
+        return FoliaRegionScanline.merge(this.sections);
+    }
+
+    @Benchmark
+    public List<Vector2d> scanlineBitmap() {
+        return FoliaRegionScanline.merge(this.bitmap);
+    }
+
+    @Benchmark
+    public List<Polygon> scanlinePolygons() {
+        return FoliaRegionScanline.mergePolygons(this.bitmap, 1);
+    }
+}
@@ -0,0 +1,274 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import com.sun.management.ThreadMXBean;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Feeds the merge algorithms with frames of regions and reports how long each frame took, how much it allocated and
+ * how many points it produced.
+ * <p>
+ * Frames are read from the history files written by {@link RegionRecorder}, or generated with the shapes of
+ * {@link Benchmark}. Only the merge algorithms are loaded, so this runs without a server or BlueMap, and can be
+ * profiled like any other program.
+ * <p>
+ * Run with {@code ./gradlew replayMerge --args="file=plugins/FoliaRegionVisualizer/history algorithms=scanline,lazy2"}
+ * or {@code ./gradlew replayMerge --args="generator=random frames=100 radius=40 seed=1"}.
+ */
+public class MergeReplay {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        Path file = null;
+        String generator = null;
+        String world = null;
+        int frames = 100;
+        int radius = 20;
+        int regions = 8;
+        int warmup = 3;
+        long seed = 1;
+        List<String> names = new ArrayList<>(MergeVerifier.ALGORITHMS.keySet());
+
+        for (var arg : args) {
+            if (arg.startsWith("file=")) {
+                file = Path.of(arg.substring(5));
+            } else if (arg.startsWith("generator=")) {
+                generator = arg.substring(10);
+            } else if (arg.startsWith("world=")) {
+                world = arg.substring(6);
+            } else if (arg.startsWith("frames=")) {
+                frames = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("radius=")) {
+                radius = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("regions=")) {
+                regions = Integer.parseInt(arg.substring(8));
+            } else if (arg.startsWith("warmup=")) {
+                warmup = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("seed=")) {
+                seed = Long.parseLong(arg.substring(5));
+            } else if (arg.startsWith("algorithms=")) {
+                names = List.of(arg.substring(11).split(","));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        Map<String, Function<LongSet, List<Vector2d>>> algorithms = new LinkedHashMap<>();
+
+        for (var name : names) {
+            var algorithm = MergeVerifier.ALGORITHMS.get(name);
+
+            if (algorithm == null) {
+                throw new IllegalArgumentException("Unknown algorithm: " + name);
+            }
+
+            algorithms.put(name, algorithm);
+        }
+
+        List<RegionLog.Frame> input;
+
+        if (file != null) {
+            input = readFrames(file, world);
+        } else if (generator != null) {
+            input = generateFrames(generator, frames, regions, radius, seed);
+        } else {
+            throw new IllegalArgumentException("Either file=<path> or generator=<square|hole|wtf|diamond|random> is required");
+        }
+
+        replay(input, algorithms, warmup);
+    }
+
+    /**
+     * Reads the frames of a history file, or of every history file in a directory, oldest first.
+     *
+     * @param world the uid of the world to read the frames of, or {@code null} to read every world
+     */
+    static @NotNull List<RegionLog.Frame> readFrames(@NotNull Path path, @Nullable String world) throws IOException {
+        var files = Files.isDirectory(path) ? RegionLog.listFiles(path) : List.of(path);
+        var worldUid = world != null ? UUID.fromString(world) : null;
+        List<RegionLog.Frame> frames = new ArrayList<>();
+
+        for (var file : files) {
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                RegionLog.readHeader(in);
+
+                for (var frame = RegionLog.readFrame(in); frame != null; frame = RegionLog.readFrame(in)) {
+                    if (worldUid == null || worldUid.equals(frame.worldUid())) {
+                        frames.add(frame);
+                    }
+                }
+            }
+        }
+
+        return frames;
+    }
+
+    /**
+     * Generates frames of regions whose radius changes from frame to frame.
+     */
+    static @NotNull List<RegionLog.Frame> generateFrames(@NotNull String generator, int frames, int regions, int radius, long seed) {
+        List<RegionLog.Frame> result = new ArrayList<>(frames);
+        var worldUid = new UUID(0, 0);
+
+        for (int frame = 0; frame < frames; frame++) {
+            long[] regionIds = new long[regions];
+            long[][] sectionKeys = new long[regions][];
+
+            for (int region = 0; region < regions; region++) {
+                int r = radius + (frame + region) % Math.max(radius, 1);
+                var sections = switch (generator) {
+                    case "square" -> Benchmark.createSections(r);
+                    case "hole" -> Benchmark.createSectionsWithHole(r);
+                    case "wtf" -> Benchmark.createWTFSections(r);
+                    case "diamond" -> Benchmark.createDiamondSections(r);
+                    case "random" -> MergeVerifier.createRandomSections(new Random(seed + (long) frame * regions + region), r);
+                    default -> throw new IllegalArgumentException("Unknown generator: " + generator);
+                };
+
+                var keys = sections.toLongArray();
+                SectionKeys.sortRowMajor(keys, keys.length);
+                regionIds[region] = region + 1;
+                sectionKeys[region] = keys;
+            }
+
+            result.add(new RegionLog.Frame(frame, worldUid, regionIds, sectionKeys));
+        }
+
+        return result;
+    }
+
+    /**
+     * Merges every region of every frame with each algorithm, printing one line per frame followed by a summary.
+     *
+     * @param warmup the number of frames merged before measuring, to let the JIT compile the algorithms
+     */
+    static void replay(@NotNull List<RegionLog.Frame> frames, @NotNull Map<String, Function<LongSet, List<Vector2d>>> algorithms, int warmup) {
+        if (frames.isEmpty()) {
+            System.out.println("No frames");
+            return;
+        }
+
+        // the sets are built up front, so building them is not measured
+        List<List<LongSet>> inputs = new ArrayList<>(frames.size());
+
+        for (var frame : frames) {
+            List<LongSet> sets = new ArrayList<>(frame.sectionKeys().length);
+
+            for (var keys : frame.sectionKeys()) {
+                sets.add(new LongOpenHashSet(keys));
+            }
+
+            inputs.add(sets);
+        }
+
+        for (int i = 0; i < warmup; i++) {
+            for (var algorithm : algorithms.values()) {
+                for (var sections : inputs.get(i % inputs.size())) {
+                    algorithm.apply(sections);
+                }
+            }
+        }
+
+        int nameLength = algorithms.keySet().stream().mapToInt(String::length).max().orElse(0);
+        long[][] nanos = new long[algorithms.size()][frames.size()];
+        long[] totalAllocated = new long[algorithms.size()];
+        long[] totalPoints = new long[algorithms.size()];
+        long previousRegions = -1;
+
+        for (int frameIndex = 0; frameIndex < frames.size(); frameIndex++) {
+            var frame = frames.get(frameIndex);
+            var sets = inputs.get(frameIndex);
+            int sectionCount = 0;
+
+            for (var keys : frame.sectionKeys()) {
+                sectionCount += keys.length;
+            }
+
+            var line = new StringBuilder("frame ").append(frameIndex)
+                    .append(" t=").append(frame.timestamp())
+                    .append(' ').append(sets.size()).append(" regions")
+                    .append(' ').append(sectionCount).append(" sections");
+
+            if (previousRegions != -1 && previousRegions != sets.size()) {
+                line.append(" (").append(sets.size() < previousRegions ? "merged" : "split").append(')');
+            }
+
+            previousRegions = sets.size();
+            int index = 0;
+
+            for (var algorithm : algorithms.entrySet()) {
+                long allocatedStart = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                int points = 0;
+
+                for (var sections : sets) {
+                    if (!sections.isEmpty()) {
+                        points += algorithm.getValue().apply(sections).size();
+                    }
+                }
+
+                long took = System.nanoTime() - start;
+                long allocated = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - allocatedStart;
+
+                nanos[index][frameIndex] = took;
+                totalAllocated[index] += allocated;
+                totalPoints[index] += points;
+
+                line.append(" | ").append(algorithm.getKey())
+                        .append(' ').append(took / 1000).append("us")
+                        .append(' ').append(allocated / 1024).append("KiB")
+                        .append(' ').append(points).append(" points");
+                index++;
+            }
+
+            System.out.println(line);
+        }
+
+        System.out.println();
+
+        int index = 0;
+
+        for (var name : algorithms.keySet()) {
+            var sorted = nanos[index].clone();
+            Arrays.sort(sorted);
+            long total = 0;
+
+            for (long took : sorted) {
+                total += took;
+            }
+
+            System.out.println(String.format("%-" + nameLength + "s", name) + ": " +
+                    "avg " + (total / sorted.length / 1000) + "us, " +
+                    "p50 " + (percentile(sorted, 0.5) / 1000) + "us, " +
+                    "p99 " + (percentile(sorted, 0.99) / 1000) + "us, " +
+                    "max " + (sorted[sorted.length - 1] / 1000) + "us, " +
+                    (totalAllocated[index] / sorted.length / 1024) + "KiB/frame, " +
+                    (totalPoints[index] / sorted.length) + " points/frame");
+            index++;
+        }
+    }
+
+    private static long percentile(long @NotNull [] sorted, double percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile);
+        return sorted[Math.min(Math.max(rank - 1, 0), sorted.length - 1)];
+    }
+}
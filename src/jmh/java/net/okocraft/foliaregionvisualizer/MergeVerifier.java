@@ -0,0 +1,384 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Checks the merge algorithms against a rasterization of the polygons they return.
+ * <p>
+ * Every section inside the bounding box (and one section around it) must be covered by exactly one polygon when it
+ * is in the source set and by none otherwise, where a polygon covers a section that is inside its outer ring and in
+ * none of its holes. The area of the polygons, without their holes, must be the number of sections. Rings are
+ * rasterized with the even-odd rule, so the zero-width bridges of the single-ring algorithms do not count.
+ * <p>
+ * Run with {@code ./gradlew verifyMerge --args="seed=1 cases=200 algorithms=scanline,lazy2"}. Without
+ * {@code algorithms=}, only the algorithms the plugin uses are checked. The {@link #LEGACY_ALGORITHMS} are known to
+ * fail on some shapes and are only run when they are named.
+ */
+public class MergeVerifier {
+
+    /**
+     * The algorithms that merge the sections into a single ring, bridging holes and islands.
+     */
+    static final Map<String, Function<LongSet, List<Vector2d>>> ALGORITHMS = new LinkedHashMap<>();
+
+    /**
+     * The algorithms that merge the sections into one polygon per island.
+     */
+    static final Map<String, Function<LongSet, List<Polygon>>> POLYGON_ALGORITHMS = new LinkedHashMap<>();
+
+    /**
+     * The algorithms the scanline replaced, kept for comparison.
+     */
+    static final Set<String> LEGACY_ALGORITHMS = Set.of("siro", "lazy", "lazy2");
+
+    static {
+        ALGORITHMS.put("siro", FoliaRegionSiro::merge);
+        ALGORITHMS.put("lazy", FoliaRegionLazy::merge);
+        ALGORITHMS.put("lazy2", FoliaRegionLazy2::merge);
+        ALGORITHMS.put("scanline", FoliaRegionScanline::merge);
+        ALGORITHMS.put("scanline-bitmap", sections -> FoliaRegionScanline.merge(SectionBitmap.of(sections)));
+
+        POLYGON_ALGORITHMS.put("scanline-polygons", FoliaRegionScanline::mergePolygons);
+        POLYGON_ALGORITHMS.put("incremental", MergeVerifier::mergeIncrementally);
+    }
+
+    public static void main(String[] args) {
+        long seed = 1;
+        int cases = 200;
+        List<String> names = new ArrayList<>(ALGORITHMS.keySet());
+        names.addAll(POLYGON_ALGORITHMS.keySet());
+        names.removeAll(LEGACY_ALGORITHMS);
+
+        for (var arg : args) {
+            if (arg.startsWith("seed=")) {
+                seed = Long.parseLong(arg.substring(5));
+            } else if (arg.startsWith("cases=")) {
+                cases = Integer.parseInt(arg.substring(6));
+            } else if (arg.startsWith("algorithms=")) {
+                names = List.of(arg.substring(11).split(","));
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+        }
+
+        Map<String, Function<LongSet, List<Polygon>>> algorithms = new LinkedHashMap<>();
+
+        for (var name : names) {
+            var ring = ALGORITHMS.get(name);
+            var polygons = POLYGON_ALGORITHMS.get(name);
+
+            if (ring != null) {
+                algorithms.put(name, sections -> List.of(new Polygon(ring.apply(sections), List.of())));
+            } else if (polygons != null) {
+                algorithms.put(name, polygons);
+            } else {
+                throw new IllegalArgumentException("Unknown algorithm: " + name);
+            }
+        }
+
+        System.exit(verify(algorithms, seed, cases) ? 0 : 1);
+    }
+
+    /**
+     * Runs every algorithm on the shapes from {@link Benchmark} and on {@code cases} random regions, printing one line
+     * per case with the result and the time each algorithm took, followed by a summary.
+     *
+     * @return whether every algorithm passed every case
+     */
+    static boolean verify(@NotNull Map<String, Function<LongSet, List<Polygon>>> algorithms, long seed, int cases) {
+        Map<String, LongSet> inputs = new LinkedHashMap<>();
+
+        for (int radius : new int[]{1, 2, 5, 20}) {
+            inputs.put("square(r=" + radius + ")", Benchmark.createSections(radius));
+            inputs.put("hole(r=" + radius + ")", Benchmark.createSectionsWithHole(radius));
+            inputs.put("wtf(r=" + radius + ")", Benchmark.createWTFSections(radius));
+            inputs.put("diamond(r=" + radius + ")", Benchmark.createDiamondSections(radius));
+        }
+
+        for (int i = 0; i < cases; i++) {
+            var random = new Random(seed + i);
+            int radius = 1 + random.nextInt(i % 4 == 0 ? 40 : 10);
+            inputs.put("random(seed=" + (seed + i) + ", r=" + radius + ")", createRandomSections(random, radius));
+        }
+
+        int nameLength = algorithms.keySet().stream().mapToInt(String::length).max().orElse(0);
+        int[] failures = new int[algorithms.size()];
+        long[] totalNanos = new long[algorithms.size()];
+        long[] maxNanos = new long[algorithms.size()];
+        int executed = 0;
+
+        for (var input : inputs.entrySet()) {
+            var sections = input.getValue();
+
+            if (sections.isEmpty()) {
+                continue;
+            }
+
+            var line = new StringBuilder(input.getKey()).append(' ').append(sections.size()).append(" sections");
+            int index = 0;
+
+            for (var algorithm : algorithms.entrySet()) {
+                String failure;
+                long took;
+
+                try {
+                    long start = System.nanoTime();
+                    var polygons = algorithm.getValue().apply(sections);
+                    took = System.nanoTime() - start;
+                    failure = check(sections, polygons);
+                } catch (RuntimeException e) {
+                    took = 0;
+                    failure = e.toString();
+                }
+
+                totalNanos[index] += took;
+                maxNanos[index] = Math.max(maxNanos[index], took);
+
+                line.append(" | ").append(algorithm.getKey()).append(' ');
+
+                if (failure == null) {
+                    line.append("ok");
+                } else {
+                    failures[index]++;
+                    line.append("FAIL (").append(failure).append(')');
+                }
+
+                line.append(' ').append(took / 1000).append("us");
+                index++;
+            }
+
+            executed++;
+            System.out.println(line);
+        }
+
+        System.out.println();
+
+        boolean passed = true;
+        int index = 0;
+
+        for (var name : algorithms.keySet()) {
+            System.out.println(String.format("%-" + nameLength + "s", name) + ": " +
+                    (executed - failures[index]) + "/" + executed + " passed, " +
+                    "avg " + (totalNanos[index] / Math.max(executed, 1) / 1000) + "us, " +
+                    "max " + (maxNanos[index] / 1000) + "us");
+            passed &= failures[index] == 0;
+            index++;
+        }
+
+        return passed;
+    }
+
+    /**
+     * Creates a random region with holes, islands and sections that only touch diagonally.
+     */
+    static LongSet createRandomSections(@NotNull Random random, int radius) {
+        var sources = new LongOpenHashSet();
+        int density = 4 + random.nextInt(6);
+
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                if (random.nextInt(10) < density) {
+                    sources.add(SectionKeys.getKey(x, z));
+                }
+            }
+        }
+
+        // holes
+        for (int i = random.nextInt(3); 0 < i; i--) {
+            int x1 = random.nextInt(radius * 2 + 1) - radius;
+            int z1 = random.nextInt(radius * 2 + 1) - radius;
+            int x2 = x1 + random.nextInt(radius + 1);
+            int z2 = z1 + random.nextInt(radius + 1);
+
+            for (int x = x1; x <= x2; x++) {
+                for (int z = z1; z <= z2; z++) {
+                    sources.remove(SectionKeys.getKey(x, z));
+                }
+            }
+        }
+
+        // islands outside the main area
+        for (int i = random.nextInt(3); 0 < i; i--) {
+            int x1 = radius + 2 + random.nextInt(radius + 1);
+            int z1 = random.nextInt(radius * 2 + 1) - radius;
+
+            for (int x = x1, x2 = x1 + random.nextInt(3); x <= x2; x++) {
+                for (int z = z1, z2 = z1 + random.nextInt(3); z <= z2; z++) {
+                    sources.add(SectionKeys.getKey(random.nextBoolean() ? x : -x, z));
+                }
+            }
+        }
+
+        // diagonal touches
+        for (int i = random.nextInt(radius + 1); 0 < i; i--) {
+            int x = random.nextInt(radius * 2 + 1) - radius;
+            int z = random.nextInt(radius * 2 + 1) - radius;
+
+            sources.add(SectionKeys.getKey(x, z));
+            sources.add(SectionKeys.getKey(x + 1, z + 1));
+            sources.remove(SectionKeys.getKey(x + 1, z));
+            sources.remove(SectionKeys.getKey(x, z + 1));
+        }
+
+        return sources;
+    }
+
+    /**
+     * Merges the sections with an {@link IncrementalOutline} that first holds another shape, so reaching the sections
+     * takes both additions and removals, with the polygons read in between.
+     */
+    static @NotNull List<Polygon> mergeIncrementally(@NotNull LongSet sections) {
+        var random = new Random(sections.size());
+        var outline = new IncrementalOutline();
+
+        outline.update(createRandomSections(random, 1 + random.nextInt(10)));
+        outline.getPolygons();
+
+        // some of the sections one by one, then the rest as a difference
+        for (long sectionKey : sections) {
+            if (random.nextInt(4) == 0) {
+                outline.addSection(sectionKey);
+            }
+        }
+
+        outline.getPolygons();
+        outline.update(sections);
+        return outline.getPolygons();
+    }
+
+    /**
+     * Rasterizes the polygons and compares them with the sections.
+     *
+     * @return {@code null} if each section is covered by exactly one polygon and nothing else is covered, otherwise
+     * the first difference
+     */
+    static @Nullable String check(@NotNull LongSet sections, @NotNull List<Polygon> polygons) {
+        List<Ring> outers = new ArrayList<>(polygons.size());
+        List<List<Ring>> holes = new ArrayList<>(polygons.size());
+        double area = 0;
+
+        for (var polygon : polygons) {
+            if (polygon.outer().size() < 4) {
+                return "outer ring with only " + polygon.outer().size() + " points";
+            }
+
+            var outer = new Ring(polygon.outer());
+            List<Ring> polygonHoles = new ArrayList<>(polygon.holes().size());
+            area += outer.area();
+
+            for (var points : polygon.holes()) {
+                if (points.size() < 4) {
+                    return "hole with only " + points.size() + " points";
+                }
+
+                var hole = new Ring(points);
+                polygonHoles.add(hole);
+                area -= hole.area();
+            }
+
+            outers.add(outer);
+            holes.add(polygonHoles);
+        }
+
+        if (area != sections.size()) {
+            return "area " + area + " != " + sections.size();
+        }
+
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+
+        for (long sectionKey : sections) {
+            minX = Math.min(minX, SectionKeys.getX(sectionKey));
+            minZ = Math.min(minZ, SectionKeys.getZ(sectionKey));
+            maxX = Math.max(maxX, SectionKeys.getX(sectionKey));
+            maxZ = Math.max(maxZ, SectionKeys.getZ(sectionKey));
+        }
+
+        for (int z = minZ - 1; z <= maxZ + 1; z++) {
+            for (int x = minX - 1; x <= maxX + 1; x++) {
+                int covered = 0;
+
+                for (int i = 0; i < outers.size(); i++) {
+                    if (outers.get(i).contains(x + 0.5, z + 0.5) && !contains(holes.get(i), x + 0.5, z + 0.5)) {
+                        covered++;
+                    }
+                }
+
+                if (covered != (sections.contains(SectionKeys.getKey(x, z)) ? 1 : 0)) {
+                    return "section " + x + ", " + z + " is covered by " + covered + " polygons";
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean contains(@NotNull List<Ring> rings, double x, double z) {
+        for (var ring : rings) {
+            if (ring.contains(x, z)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A ring in section coordinates.
+     */
+    private static final class Ring {
+
+        private final double[] xs;
+        private final double[] zs;
+
+        private Ring(@NotNull List<Vector2d> points) {
+            this.xs = new double[points.size()];
+            this.zs = new double[points.size()];
+
+            for (int i = 0; i < points.size(); i++) {
+                this.xs[i] = points.get(i).getX() / 256;
+                this.zs[i] = points.get(i).getY() / 256;
+            }
+        }
+
+        private double area() {
+            double area = 0;
+
+            for (int i = 0, j = this.xs.length - 1; i < this.xs.length; j = i++) {
+                area += this.xs[j] * this.zs[i] - this.xs[i] * this.zs[j];
+            }
+
+            return Math.abs(area) / 2;
+        }
+
+        /**
+         * Returns whether the point is inside the ring by the even-odd rule.
+         */
+        private boolean contains(double x, double z) {
+            boolean inside = false;
+
+            for (int i = 0, j = this.xs.length - 1; i < this.xs.length; j = i++) {
+                if ((this.zs[i] > z) != (this.zs[j] > z) &&
+                        x < (this.xs[j] - this.xs[i]) * (z - this.zs[i]) / (this.zs[j] - this.zs[i]) + this.xs[i]) {
+                    inside = !inside;
+                }
+            }
+
+            return inside;
+        }
+    }
+}
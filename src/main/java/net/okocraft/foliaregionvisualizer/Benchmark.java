@@ -1,37 +1,46 @@
 package net.okocraft.foliaregionvisualizer;
 
 import com.flowpowered.math.vector.Vector2d;
-import io.papermc.paper.util.CoordinateUtils;
+import com.sun.management.ThreadMXBean;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.management.ManagementFactory;
 import java.util.List;
 import java.util.Random;
 import java.util.function.Function;
 
 public class Benchmark {
 
+    private static final ThreadMXBean THREAD_MX_BEAN = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
     static void benchmark(@NotNull LongSet sections, @NotNull Function<LongSet, List<Vector2d>> algorithm) {
         for (int i = 0; i < 3; i++) {
             long start = System.currentTimeMillis();
+            long allocatedStart = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
             var points = algorithm.apply(sections);
+            long allocated = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - allocatedStart;
             long end = System.currentTimeMillis();
-            System.out.println("temp:" + points.size() + " (took: " + (end - start) + "ms)");
+            System.out.println("temp:" + points.size() + " (took: " + (end - start) + "ms, allocated: " + allocated + " bytes)");
         }
 
         long took = 0;
+        long allocatedTotal = 0;
         int count = 5;
 
         for (int i = 0; i < count; i++) {
             long start = System.currentTimeMillis();
+            long allocatedStart = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
             var points = algorithm.apply(sections);
+            long allocated = THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() - allocatedStart;
             long end = System.currentTimeMillis();
             took += (end - start);
-            System.out.println("temp:" + points.size() + " (took: " + (end - start) + "ms)");
+            allocatedTotal += allocated;
+            System.out.println("temp:" + points.size() + " (took: " + (end - start) + "ms, allocated: " + allocated + " bytes)");
         }
 
-        System.out.println((took / count) + "ms");
+        System.out.println((took / count) + "ms, " + (allocatedTotal / count) + " bytes/op");
     }
 
     static void exploreLimit(@NotNull Function<LongSet, List<Vector2d>> algorithm) {
@@ -60,7 +69,7 @@ public class Benchmark {
 
         for (int x = -radius; x <= radius; x++) {
             for (int z = -radius; z <= radius; z++) {
-                sources.add(CoordinateUtils.getChunkKey(x, z));
+                sources.add(SectionKeys.getKey(x, z));
             }
         }
 
@@ -79,7 +88,7 @@ public class Benchmark {
 
         for (int x = -radius; x <= radius; x++) {
             for (int z = -radius; z <= radius; z++) {
-                sources.add(CoordinateUtils.getChunkKey(x + center, z + center));
+                sources.add(SectionKeys.getKey(x + center, z + center));
             }
         }
 
@@ -93,7 +102,7 @@ public class Benchmark {
 
         for (int x = -start; x <= start; x++) {
             for (int z = -start; z <= start; z++) {
-                sources.remove(CoordinateUtils.getChunkKey(x, z));
+                sources.remove(SectionKeys.getKey(x, z));
             }
         }
 
@@ -114,7 +123,7 @@ public class Benchmark {
         for (int x = -radius; x <= radius; x++) {
             for (int z = -radius; z <= radius; z++) {
                 if (Math.abs(x) == Math.abs(z)) {
-                    sources.remove(CoordinateUtils.getChunkKey(x, z));
+                    sources.remove(SectionKeys.getKey(x, z));
                 }
             }
         }
@@ -123,12 +132,12 @@ public class Benchmark {
         for (int x = -radius; x <= radius; x++) {
             for (int z = -radius; z <= radius; z++) {
                 if (random.nextInt(10) != 0) {
-                    sources.add(CoordinateUtils.getChunkKey(x, z));
+                    sources.add(SectionKeys.getKey(x, z));
                 } else {
-                    sources.remove(CoordinateUtils.getChunkKey(x - 1, z));
-                    sources.remove(CoordinateUtils.getChunkKey(x + 1, z));
-                    sources.remove(CoordinateUtils.getChunkKey(x, z - 1));
-                    sources.remove(CoordinateUtils.getChunkKey(x, z + 1));
+                    sources.remove(SectionKeys.getKey(x - 1, z));
+                    sources.remove(SectionKeys.getKey(x + 1, z));
+                    sources.remove(SectionKeys.getKey(x, z - 1));
+                    sources.remove(SectionKeys.getKey(x, z + 1));
                 }
             }
         }
@@ -142,19 +151,19 @@ public class Benchmark {
         int zRadius = 0;
         for (int x = -radius; x <= 0; x++) {
             for (int z = 0; z <= zRadius; z++) {
-                sources.add(CoordinateUtils.getChunkKey(x, z));
+                sources.add(SectionKeys.getKey(x, z));
             }
             zRadius++;
         }
 
         for (long key : sources.toLongArray()) {
-            int x = CoordinateUtils.getChunkX(key);
-            int z = CoordinateUtils.getChunkZ(key);
+            int x = SectionKeys.getX(key);
+            int z = SectionKeys.getZ(key);
 
-            sources.add(CoordinateUtils.getChunkKey(x, z));
-            sources.add(CoordinateUtils.getChunkKey(x, -z));
-            sources.add(CoordinateUtils.getChunkKey(-x, z));
-            sources.add(CoordinateUtils.getChunkKey(-x, -z));
+            sources.add(SectionKeys.getKey(x, z));
+            sources.add(SectionKeys.getKey(x, -z));
+            sources.add(SectionKeys.getKey(-x, z));
+            sources.add(SectionKeys.getKey(-x, -z));
         }
 
         return sources;
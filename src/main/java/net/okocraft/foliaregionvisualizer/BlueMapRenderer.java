@@ -0,0 +1,150 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import de.bluecolored.bluemap.api.markers.Marker;
+import de.bluecolored.bluemap.api.markers.ShapeMarker;
+import de.bluecolored.bluemap.api.math.Color;
+import de.bluecolored.bluemap.api.math.Shape;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shows the outlines as shape markers on the BlueMap maps of each world.
+ */
+final class BlueMapRenderer implements RegionRenderer {
+
+    private final MarkerSetProvider markerSetProvider;
+    private final Metrics metrics;
+    private final Map<UUID, Object2LongMap<String>> publishedHashMap = new ConcurrentHashMap<>();
+
+    BlueMapRenderer(@NotNull MarkerSetProvider markerSetProvider, @NotNull Metrics metrics) {
+        this.markerSetProvider = markerSetProvider;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean accepts(@NotNull UUID worldUid) {
+        return this.markerSetProvider.getOrCreate(worldUid) != null;
+    }
+
+    @Override
+    public @NotNull VisualizerService.UpdateResult render(@NotNull RenderFrame frame) {
+        var uid = frame.worldUid();
+        var markerSet = this.markerSetProvider.getOrCreate(uid);
+
+        if (markerSet == null) {
+            return VisualizerService.UpdateResult.SKIPPED; // the world is not shown on any map
+        }
+
+        long buildStart = System.nanoTime();
+        var levels = frame.levels();
+        var currentMarkers = markerSet.getMarkers();
+        Map<String, Marker> nextMarkers = new HashMap<>(currentMarkers.size());
+        var publishedHashes = this.publishedHashMap.computeIfAbsent(uid, ignored -> new Object2LongOpenHashMap<>());
+        int putCount = 0;
+
+        for (var region : frame.regions()) {
+            var baseName = "region-" + region.regionId();
+
+            for (int level = 0; level < levels.size(); level++) {
+                var polygons = region.levels().get(level);
+                var levelName = level == 0 ? baseName : baseName + "-lod" + level;
+
+                // every island is a marker of its own, with its holes cut out by BlueMap
+                for (int part = 0; part < polygons.size(); part++) {
+                    var polygon = polygons.get(part);
+                    var points = polygon.outer();
+
+                    var id = createGlobalId(uid, part == 0 ? levelName : levelName + "-part" + part);
+                    long hash = VisualizerService.hashMarker(region.sectionCount(), polygon, region.color());
+
+                    // BlueMap sends every changed marker to the web clients again, so unchanged markers are reused
+                    var existing = currentMarkers.get(id);
+
+                    if (existing != null && publishedHashes.getLong(id) == hash) {
+                        nextMarkers.put(id, existing);
+                        continue;
+                    }
+
+                    var marker = createMarkerBuilder(baseName, region.color()).shape(new Shape(points), 0).position(points.get(0).toVector3());
+
+                    if (!polygon.holes().isEmpty()) {
+                        marker.holes(toShapes(polygon.holes()));
+                    }
+
+                    // each level is shown from its own distance until the next, coarser level takes over
+                    marker.minDistance(levels.get(level).minDistance());
+
+                    if (level + 1 < levels.size()) {
+                        marker.maxDistance(levels.get(level + 1).minDistance());
+                    }
+
+                    nextMarkers.put(id, marker.build());
+                    publishedHashes.put(id, hash);
+                    putCount++;
+                }
+            }
+        }
+
+        int removedCount = 0;
+
+        for (var id : currentMarkers.keySet()) {
+            if (!nextMarkers.containsKey(id)) {
+                removedCount++;
+            }
+        }
+
+        publishedHashes.keySet().retainAll(nextMarkers.keySet());
+
+        // BlueMap's web server reads the marker set while it is serialized, so it is replaced as a whole
+        long publishStart = System.nanoTime();
+        long publishNanos = 0;
+
+        if (putCount != 0 || removedCount != 0) {
+            this.markerSetProvider.publish(uid, nextMarkers);
+            publishNanos = System.nanoTime() - publishStart;
+        }
+
+        this.metrics.recordStage(Metrics.Stage.BUILD, publishStart - buildStart);
+        this.metrics.recordStage(Metrics.Stage.PUBLISH, publishNanos);
+        this.metrics.recordMarkers(putCount, removedCount);
+
+        return new VisualizerService.UpdateResult(nextMarkers.size(), putCount + removedCount);
+    }
+
+    @Override
+    public void clear() {
+        this.markerSetProvider.clear();
+        this.publishedHashMap.clear();
+    }
+
+    static @NotNull ShapeMarker.Builder createMarkerBuilder(@NotNull String name, @NotNull Color color) {
+        return ShapeMarker.builder()
+                .label(name)
+                .detail(name)
+                .lineColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), Math.min(color.getAlpha() + 0.3f, 1.0f)))
+                .fillColor(color)
+                .depthTestEnabled(false);
+    }
+
+    static @NotNull Shape @NotNull [] toShapes(@NotNull List<List<Vector2d>> rings) {
+        var shapes = new Shape[rings.size()];
+
+        for (int i = 0; i < shapes.length; i++) {
+            shapes[i] = new Shape(rings.get(i));
+        }
+
+        return shapes;
+    }
+
+    static @NotNull String createGlobalId(@NotNull UUID worldUid, @NotNull String baseName) {
+        return "!FoliaRegionVisualizer#" + worldUid + ":" + baseName;
+    }
+}
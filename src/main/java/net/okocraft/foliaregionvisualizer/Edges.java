@@ -0,0 +1,99 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Packs a directed unit edge of the section grid into a single {@code long}.
+ * <p>
+ * The layout is {@code z (31 bits) | x (31 bits) | direction (2 bits)}, where x and z are the start point of the edge.
+ */
+final class Edges {
+
+    //     0
+    //     ↑
+    //  3 ← → 1
+    //     ↓
+    //     2
+
+    static final int NORTH = 0;
+    static final int EAST = 1;
+    static final int SOUTH = 2;
+    static final int WEST = 3;
+
+    private Edges() {
+        throw new UnsupportedOperationException();
+    }
+
+    static long key(int startX, int startZ, int direction) {
+        return ((long) startZ << 33) | ((startX & 0x7FFFFFFFL) << 2) | direction;
+    }
+
+    static int startX(long edge) {
+        return (int) (edge << 31 >> 33);
+    }
+
+    static int startZ(long edge) {
+        return (int) (edge >> 33);
+    }
+
+    static int direction(long edge) {
+        return (int) edge & 3;
+    }
+
+    static int endX(long edge) {
+        return startX(edge) + dx(direction(edge));
+    }
+
+    static int endZ(long edge) {
+        return startZ(edge) + dz(direction(edge));
+    }
+
+    static boolean isHorizontal(long edge) {
+        return (edge & 1) != 0;
+    }
+
+    static int dx(int direction) {
+        return (direction & 1) == 0 ? 0 : 2 - direction;
+    }
+
+    static int dz(int direction) {
+        return (direction & 1) == 0 ? direction - 1 : 0;
+    }
+
+    /**
+     * Returns the unit edge that continues this edge in the same direction.
+     */
+    static long next(long edge) {
+        int direction = direction(edge);
+        return key(startX(edge) + dx(direction), startZ(edge) + dz(direction), direction);
+    }
+
+    static long reverse(long edge) {
+        int direction = direction(edge);
+        return key(startX(edge) + dx(direction), startZ(edge) + dz(direction), direction ^ 2);
+    }
+
+    static long rotate(long edge, boolean clockwise) {
+        return key(startX(edge), startZ(edge), direction(edge) + (clockwise ? 1 : 3) & 3);
+    }
+
+    /**
+     * Adds the edge to the set, or removes its reverse if the neighbouring section already added it.
+     */
+    static void toggle(@NotNull LongSet edges, long edge) {
+        if (!edges.remove(reverse(edge))) {
+            edges.add(edge);
+        }
+    }
+
+    static void addSection(@NotNull LongSet edges, int x1, int z1) {
+        int x2 = x1 + 1;
+        int z2 = z1 + 1;
+
+        toggle(edges, key(x1, z1, EAST));
+        toggle(edges, key(x2, z1, SOUTH));
+        toggle(edges, key(x2, z2, WEST));
+        toggle(edges, key(x1, z2, NORTH));
+    }
+}
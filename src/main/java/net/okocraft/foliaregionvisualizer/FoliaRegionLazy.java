@@ -1,6 +1,5 @@
 package net.okocraft.foliaregionvisualizer;
 
-import ca.spottedleaf.starlight.common.util.CoordinateUtils;
 import com.flowpowered.math.vector.Vector2d;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
@@ -16,8 +15,8 @@ public class FoliaRegionLazy {
         Set<Line> lineSet = new ObjectOpenHashSet<>();
 
         for (long sectionKey : sections) {
-            int sectionX1 = CoordinateUtils.getChunkX(sectionKey);
-            int sectionZ1 = CoordinateUtils.getChunkZ(sectionKey);
+            int sectionX1 = SectionKeys.getX(sectionKey);
+            int sectionZ1 = SectionKeys.getZ(sectionKey);
 
             int minX = sectionX1 << 8;
             int minZ = sectionZ1 << 8;
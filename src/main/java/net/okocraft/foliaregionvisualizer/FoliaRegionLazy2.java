@@ -1,16 +1,13 @@
 package net.okocraft.foliaregionvisualizer;
 
 import com.flowpowered.math.vector.Vector2d;
-import io.papermc.paper.util.CoordinateUtils;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
-import it.unimi.dsi.fastutil.objects.ObjectSet;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
 
 class FoliaRegionLazy2 {
 
@@ -26,62 +23,45 @@ class FoliaRegionLazy2 {
         return result;
     }
 
-    private static ObjectSet<Line> toOutline(LongSet sections) {
-        ObjectSet<Line> res = new ObjectOpenHashSet<>();
-        var mutableLine = new Line();
-
-        sections.forEach(sectionKey -> {
-            int x1 = CoordinateUtils.getChunkX(sectionKey);
-            int z1 = CoordinateUtils.getChunkZ(sectionKey);
-            int x2 = x1 + 1;
-            int z2 = z1 + 1;
-
-            mutableLine.set(x2, z1, x1, z1);
-            if (!res.remove(mutableLine)) res.add(mutableLine.createReversed());
-            mutableLine.set(x2, z2, x2, z1);
-            if (!res.remove(mutableLine)) res.add(mutableLine.createReversed());
-            mutableLine.set(x1, z2, x2, z2);
-            if (!res.remove(mutableLine)) res.add(mutableLine.createReversed());
-            mutableLine.set(x1, z1, x1, z2);
-            if (!res.remove(mutableLine)) res.add(mutableLine.createReversed());
-        });
+    private static LongSet toOutline(LongSet sections) {
+        LongSet res = new LongOpenHashSet(sections.size());
+
+        sections.forEach(sectionKey -> Edges.addSection(res, SectionKeys.getX(sectionKey), SectionKeys.getZ(sectionKey)));
 
         return res;
     }
 
-    private static List<List<Line>> sortLines(Set<Line> lines) {
+    private static List<List<Line>> sortLines(LongSet edges) {
         List<List<Line>> closedLines = new ArrayList<>();
 
-        while (!lines.isEmpty()) {
+        while (!edges.isEmpty()) {
 
             List<Line> closedLine = new ArrayList<>();
 
-            Line line = null;
-
-            boolean clockwise = false;
-
-            while (line == null || !line.canConnectTo(closedLine.get(0))) {
-                if (line == null) {
-                    line = lines.stream()
-                            .min(Comparator.<Line>comparingInt(Line::startX).thenComparingInt(Line::startZ))
-                            .orElseThrow();
-                    if (line.startZ() == line.endZ()) {
-                        clockwise = true;
-                    }
-                } else {
-                    Line next = line.createNext();
-                    boolean rotateClockwise = clockwise != lines.contains(next.createReversed());
-                    line = next.createRotated(rotateClockwise);
-                    if (!lines.contains(line)) {
-                        line = next.createRotated(!rotateClockwise);
-                    }
+            long edge = findFirstEdge(edges);
+            boolean clockwise = Edges.isHorizontal(edge);
+
+            while (true) {
+                edges.remove(edge);
+
+                long next = Edges.next(edge);
+
+                while (edges.remove(next)) {
+                    next = Edges.next(next);
                 }
 
+                // only the merged segments become Line objects
+                var line = new Line(Edges.startX(edge), Edges.startZ(edge), Edges.startX(next), Edges.startZ(next));
                 closedLine.add(line);
-                lines.remove(line);
 
-                for (Line next = line.createNext(); lines.remove(next); next = line.createNext()) {
-                    line.connect(next);
+                if (line.canConnectTo(closedLine.get(0))) {
+                    break;
+                }
+
+                boolean rotateClockwise = clockwise != edges.contains(Edges.reverse(next));
+                edge = Edges.rotate(next, rotateClockwise);
+                if (!edges.contains(edge)) {
+                    edge = Edges.rotate(next, !rotateClockwise);
                 }
             }
 
@@ -94,6 +74,23 @@ class FoliaRegionLazy2 {
         return closedLines;
     }
 
+    private static long findFirstEdge(LongSet edges) {
+        var iterator = edges.iterator();
+        long first = iterator.nextLong();
+
+        while (iterator.hasNext()) {
+            long edge = iterator.nextLong();
+            int x = Edges.startX(edge);
+            int firstX = Edges.startX(first);
+
+            if (x < firstX || x == firstX && Edges.startZ(edge) < Edges.startZ(first)) {
+                first = edge;
+            }
+        }
+
+        return first;
+    }
+
     private static List<Line> withHalls(List<List<Line>> sortedLines) {
         List<Line> parent = new ArrayList<>(sortedLines.get(0));
 
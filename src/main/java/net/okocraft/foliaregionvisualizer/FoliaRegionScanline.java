@@ -0,0 +1,798 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Builds the outline by sweeping the rows of the sorted section keys.
+ * <p>
+ * Each row is compressed into runs of consecutive sections, and the boundary edges are the differences between
+ * the runs of neighbouring rows. Every loop is then bridged to the nearest edge above its top-left corner, which is
+ * found with the same sweep, so holes and islands are spliced into a single shape in O(n log n).
+ * <p>
+ * The {@code mergePolygons} methods use the same bridges only to find the outer ring around each hole, and return
+ * every island as its own {@link Polygon} instead of splicing the loops together.
+ */
+class FoliaRegionScanline {
+
+    static List<Vector2d> merge(@NotNull LongSet sections) {
+        var keys = sections.toLongArray();
+        SectionKeys.sortRowMajor(keys, keys.length);
+        return mergeSorted(keys, keys.length);
+    }
+
+    /**
+     * Merges the sections that are already sorted by {@link SectionKeys#sortRowMajor(long[], int)}.
+     */
+    static List<Vector2d> mergeSorted(long @NotNull [] keys, int length) {
+        return mergeSorted(keys, length, MergeContext.get());
+    }
+
+    static List<Vector2d> mergeSorted(long @NotNull [] keys, int length, @NotNull MergeContext context) {
+        if (length == 0) {
+            return List.of();
+        }
+
+        var sweep = new Sweep(context, length);
+
+        try {
+            sweep.scan(keys, length);
+            sweep.link();
+            sweep.trace();
+            return sweep.assemble();
+        } finally {
+            sweep.release();
+        }
+    }
+
+    /**
+     * Merges the sections of the bitmap, reading the runs of each row directly from the words of its tiles.
+     */
+    static List<Vector2d> merge(@NotNull SectionBitmap sections) {
+        return merge(sections, 1, MergeContext.get());
+    }
+
+    /**
+     * Merges the sections into a simplified outline whose corners lie on a grid of {@code tolerance} sections.
+     * <p>
+     * Every grid cell that contains a section is covered, so each section stays inside the outline, and the outline
+     * is at most {@code tolerance - 1} sections away from the sections it covers. Those extra sections are not
+     * clamped, so the simplified outlines of neighbouring regions overlap by up to that much, and islands closer than
+     * that may be joined (see {@link SectionBitmap#coarsen(int)}).
+     */
+    static List<Vector2d> merge(@NotNull SectionBitmap sections, int tolerance) {
+        return merge(sections, tolerance, MergeContext.get());
+    }
+
+    static List<Vector2d> merge(@NotNull SectionBitmap sections, int tolerance, @NotNull MergeContext context) {
+        var cells = tolerance <= 1 ? sections : sections.coarsen(tolerance);
+
+        if (cells.isEmpty()) {
+            return List.of();
+        }
+
+        var sweep = new Sweep(context, 16);
+
+        try {
+            sweep.scan(cells);
+            sweep.link();
+            sweep.trace();
+            return sweep.assemble(Math.max(tolerance, 1));
+        } finally {
+            sweep.release();
+        }
+    }
+
+    /**
+     * Merges the sections into one polygon per island, each with its own holes.
+     */
+    static List<Polygon> mergePolygons(@NotNull LongSet sections) {
+        return mergePolygons(SectionBitmap.of(sections), 1);
+    }
+
+    /**
+     * Merges the sections into one polygon per island, simplified like {@link #merge(SectionBitmap, int)}.
+     */
+    static List<Polygon> mergePolygons(@NotNull SectionBitmap sections, int tolerance) {
+        return mergePolygons(sections, tolerance, MergeContext.get());
+    }
+
+    static List<Polygon> mergePolygons(@NotNull SectionBitmap sections, int tolerance, @NotNull MergeContext context) {
+        var cells = tolerance <= 1 ? sections : sections.coarsen(tolerance);
+
+        if (cells.isEmpty()) {
+            return List.of();
+        }
+
+        var sweep = new Sweep(context, 16);
+
+        try {
+            sweep.scan(cells);
+            sweep.link();
+            sweep.trace();
+            return sweep.assemblePolygons(Math.max(tolerance, 1));
+        } finally {
+            sweep.release();
+        }
+    }
+
+    /**
+     * Groups loops that are already traced into polygons, each loop given as its unit edges (see {@link Edges}) in
+     * walking order.
+     * <p>
+     * The loops must be traced in the same way as this class does, turning right where sections only touch
+     * diagonally, so the result is the same as {@link #mergePolygons(LongSet)} of the sections they came from.
+     */
+    static List<Polygon> mergeLoopPolygons(@NotNull Collection<long[]> loops) {
+        return mergeLoopPolygons(loops, MergeContext.get());
+    }
+
+    static List<Polygon> mergeLoopPolygons(@NotNull Collection<long[]> loops, @NotNull MergeContext context) {
+        if (loops.isEmpty()) {
+            return List.of();
+        }
+
+        var sweep = new Sweep(context, 16);
+
+        try {
+            for (long[] loop : loops) {
+                sweep.addLoop(loop);
+            }
+
+            sweep.sortHorizontalEdges();
+            return sweep.assemblePolygons(1);
+        } finally {
+            sweep.release();
+        }
+    }
+
+    private static final class Sweep {
+
+        // when scanning, edges are stored in the order of the lines they touch first, so the first edge of each loop
+        // is the left end of its top line.
+        private int edgeCount;
+        private int[] startX;
+        private int[] startZ;
+        private int[] endX;
+        private int[] endZ;
+        private int[] next;
+        private int[] loopOf;
+
+        // horizontal edges from top to bottom
+        private int horizontalCount;
+        private int[] horizontal;
+
+        private int loopCount;
+        private int[] anchor;
+        private int[] target;
+
+        private int[] childStart;
+        private int[] children;
+        private int[] topLevel;
+        private int topLevelCount;
+
+        private int pointCount;
+        private int[] pointX;
+        private int[] pointZ;
+
+        // runs of consecutive sections, row by row
+        private int[] runX1;
+        private int[] runX2;
+        private int runCount;
+        private int rowStart;
+        private int prevRunStart;
+        private int prevRunEnd;
+        private int prevZ;
+        private boolean hasPrev;
+
+        private final MergeContext context;
+
+        private Sweep(MergeContext context, int sectionCount) {
+            context.begin();
+
+            int capacity = Math.max(16, sectionCount);
+            this.context = context;
+            // the edge arrays are always requested, grown and kept together, so they stay as long as startX
+            this.startX = context.buffer(MergeContext.START_X, capacity);
+            this.startZ = context.buffer(MergeContext.START_Z, capacity);
+            this.endX = context.buffer(MergeContext.END_X, capacity);
+            this.endZ = context.buffer(MergeContext.END_Z, capacity);
+            this.next = context.buffer(MergeContext.NEXT, capacity);
+            this.loopOf = context.buffer(MergeContext.LOOP_OF, capacity);
+            this.horizontal = context.buffer(MergeContext.HORIZONTAL, capacity);
+            this.anchor = context.buffer(MergeContext.ANCHOR, 16);
+            this.runX1 = context.buffer(MergeContext.RUN_X1, 16);
+            this.runX2 = context.buffer(MergeContext.RUN_X2, 16);
+        }
+
+        /**
+         * Gives the buffers that were grown while merging back to the context.
+         */
+        private void release() {
+            context.keep(MergeContext.START_X, startX, edgeCount);
+            context.keep(MergeContext.START_Z, startZ, edgeCount);
+            context.keep(MergeContext.END_X, endX, edgeCount);
+            context.keep(MergeContext.END_Z, endZ, edgeCount);
+            context.keep(MergeContext.NEXT, next, edgeCount);
+            context.keep(MergeContext.LOOP_OF, loopOf, edgeCount);
+            context.keep(MergeContext.HORIZONTAL, horizontal, horizontalCount);
+            context.keep(MergeContext.ANCHOR, anchor, loopCount);
+            context.keep(MergeContext.RUN_X1, runX1, runCount);
+            context.keep(MergeContext.RUN_X2, runX2, runCount);
+
+            if (pointX != null) {
+                context.keep(MergeContext.POINT_X, pointX, pointCount);
+                context.keep(MergeContext.POINT_Z, pointZ, pointCount);
+            }
+
+            context.end();
+        }
+
+        private void scan(long[] keys, int length) {
+            for (int i = 0; i < length; ) {
+                int z = SectionKeys.getZ(keys[i]);
+                startRow();
+
+                while (i < length && SectionKeys.getZ(keys[i]) == z) {
+                    int x1 = SectionKeys.getX(keys[i++]);
+                    int x2 = x1 + 1;
+
+                    while (i < length && SectionKeys.getZ(keys[i]) == z && SectionKeys.getX(keys[i]) == x2) {
+                        x2++;
+                        i++;
+                    }
+
+                    addRun(x1, x2);
+                }
+
+                endRow(z);
+            }
+
+            endScan();
+        }
+
+        private void scan(SectionBitmap bitmap) {
+            long[] tileKeys = bitmap.getTileKeysRowMajor();
+            long[][] tileRow = new long[16][];
+
+            for (int first = 0; first < tileKeys.length; ) {
+                int tileZ = SectionKeys.getZ(tileKeys[first]);
+                int last = first;
+
+                while (last < tileKeys.length && SectionKeys.getZ(tileKeys[last]) == tileZ) {
+                    if (last - first == tileRow.length) {
+                        tileRow = Arrays.copyOf(tileRow, tileRow.length << 1);
+                    }
+
+                    tileRow[last - first] = bitmap.getTile(tileKeys[last]);
+                    last++;
+                }
+
+                for (int row = 0; row < SectionBitmap.TILE_SIZE; row++) {
+                    startRow();
+
+                    for (int t = first; t < last; t++) {
+                        int baseX = SectionKeys.getX(tileKeys[t]) << SectionBitmap.TILE_SHIFT;
+                        long word = tileRow[t - first][row];
+
+                        while (word != 0) {
+                            int bit1 = Long.numberOfTrailingZeros(word);
+                            int bit2 = Long.numberOfTrailingZeros(~word & (-1L << bit1));
+
+                            // a run may continue from the previous tile
+                            addRun(baseX + bit1, baseX + bit2);
+                            word = bit2 == SectionBitmap.TILE_SIZE ? 0 : word & (-1L << bit2);
+                        }
+                    }
+
+                    if (rowStart != runCount) {
+                        endRow((tileZ << SectionBitmap.TILE_SHIFT) + row);
+                    }
+                }
+
+                first = last;
+            }
+
+            endScan();
+        }
+
+        private void startRow() {
+            rowStart = runCount;
+        }
+
+        private void addRun(int x1, int x2) {
+            if (rowStart < runCount && runX2[runCount - 1] == x1) {
+                runX2[runCount - 1] = x2;
+                return;
+            }
+
+            if (runCount == runX1.length) {
+                runX1 = IntArrays.grow(runX1, runCount + 1);
+                runX2 = IntArrays.grow(runX2, runCount + 1);
+            }
+
+            runX1[runCount] = x1;
+            runX2[runCount] = x2;
+            runCount++;
+        }
+
+        private void endRow(int z) {
+            if (hasPrev && prevZ + 1 != z) {
+                // bottom line of the previous row, nothing below it
+                subtract(runX1, runX2, prevRunStart, prevRunEnd, 0, 0, prevZ + 1, false);
+                prevRunStart = prevRunEnd = rowStart;
+            }
+
+            subtract(runX1, runX2, rowStart, runCount, prevRunStart, prevRunEnd, z, true);
+            subtract(runX1, runX2, prevRunStart, prevRunEnd, rowStart, runCount, z, false);
+
+            for (int run = rowStart; run < runCount; run++) {
+                addEdge(runX1[run], z + 1, runX1[run], z);
+                addEdge(runX2[run], z, runX2[run], z + 1);
+            }
+
+            prevRunStart = rowStart;
+            prevRunEnd = runCount;
+            prevZ = z;
+            hasPrev = true;
+        }
+
+        private void endScan() {
+            subtract(runX1, runX2, prevRunStart, prevRunEnd, 0, 0, prevZ + 1, false);
+        }
+
+        /**
+         * Adds the horizontal edges covering the runs in {@code [from, to)} but not in {@code [otherFrom, otherTo)}.
+         */
+        private void subtract(int[] runX1, int[] runX2, int from, int to, int otherFrom, int otherTo, int z, boolean east) {
+            int other = otherFrom;
+
+            for (int run = from; run < to; run++) {
+                int x = runX1[run];
+                int runEnd = runX2[run];
+
+                while (other < otherTo && runX2[other] <= x) {
+                    other++;
+                }
+
+                for (int o = other; x < runEnd; o++) {
+                    if (o == otherTo || runEnd <= runX1[o]) {
+                        addHorizontalEdge(x, runEnd, z, east);
+                        break;
+                    }
+
+                    if (x < runX1[o]) {
+                        addHorizontalEdge(x, runX1[o], z, east);
+                    }
+
+                    x = Math.max(x, runX2[o]);
+                }
+            }
+        }
+
+        private void addHorizontalEdge(int x1, int x2, int z, boolean east) {
+            if (horizontalCount == horizontal.length) {
+                horizontal = IntArrays.grow(horizontal, horizontalCount + 1);
+            }
+
+            horizontal[horizontalCount++] = edgeCount;
+
+            if (east) {
+                addEdge(x1, z, x2, z);
+            } else {
+                addEdge(x2, z, x1, z);
+            }
+        }
+
+        private void addEdge(int x1, int z1, int x2, int z2) {
+            if (edgeCount == startX.length) {
+                startX = IntArrays.grow(startX, edgeCount + 1);
+                startZ = IntArrays.grow(startZ, edgeCount + 1);
+                endX = IntArrays.grow(endX, edgeCount + 1);
+                endZ = IntArrays.grow(endZ, edgeCount + 1);
+                next = IntArrays.grow(next, edgeCount + 1);
+                loopOf = IntArrays.grow(loopOf, edgeCount + 1);
+            }
+
+            startX[edgeCount] = x1;
+            startZ[edgeCount] = z1;
+            endX[edgeCount] = x2;
+            endZ[edgeCount] = z2;
+            edgeCount++;
+        }
+
+        private int direction(int edge) {
+            if (startZ[edge] == endZ[edge]) {
+                return startX[edge] < endX[edge] ? Edges.EAST : Edges.WEST;
+            } else {
+                return startZ[edge] < endZ[edge] ? Edges.SOUTH : Edges.NORTH;
+            }
+        }
+
+        private void link() {
+            var edgeByStart = context.edgeByStart(edgeCount);
+            int[] pinch = context.buffer(MergeContext.PINCH, edgeCount);
+
+            for (int edge = 0; edge < edgeCount; edge++) {
+                // two edges start at the same point where sections only touch diagonally
+                pinch[edge] = edgeByStart.put(SectionKeys.getKey(startX[edge], startZ[edge]), edge);
+            }
+
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int candidate = edgeByStart.get(SectionKeys.getKey(endX[edge], endZ[edge]));
+
+                // turn right so that diagonally touching sections are traced as separate loops
+                if (pinch[candidate] != -1 && direction(candidate) != (direction(edge) + 1 & 3)) {
+                    candidate = pinch[candidate];
+                }
+
+                next[edge] = candidate;
+            }
+        }
+
+        private void trace() {
+            Arrays.fill(loopOf, 0, edgeCount, -1);
+
+            for (int edge = 0; edge < edgeCount; edge++) {
+                if (loopOf[edge] != -1) {
+                    continue;
+                }
+
+                if (loopCount == anchor.length) {
+                    anchor = IntArrays.grow(anchor, loopCount + 1);
+                }
+
+                anchor[loopCount] = edge;
+
+                int current = edge;
+
+                do {
+                    loopOf[current] = loopCount;
+                    current = next[current];
+                } while (current != edge);
+
+                loopCount++;
+            }
+        }
+
+        private void addLoop(long[] unitEdges) {
+            // start at a corner so that the first and the last edges are not collinear
+            int offset = 0;
+
+            while (offset < unitEdges.length && Edges.direction(unitEdges[offset]) == Edges.direction(unitEdges[(offset + unitEdges.length - 1) % unitEdges.length])) {
+                offset++;
+            }
+
+            if (offset == unitEdges.length) {
+                return;
+            }
+
+            if (loopCount == anchor.length) {
+                anchor = IntArrays.grow(anchor, loopCount + 1);
+            }
+
+            int first = edgeCount;
+            int anchorEdge = -1;
+
+            for (int i = 0; i < unitEdges.length; ) {
+                long edge = unitEdges[(offset + i) % unitEdges.length];
+                int direction = Edges.direction(edge);
+                int length = 1;
+
+                while (i + length < unitEdges.length && Edges.direction(unitEdges[(offset + i + length) % unitEdges.length]) == direction) {
+                    length++;
+                }
+
+                int x = Edges.startX(edge);
+                int z = Edges.startZ(edge);
+
+                if (Edges.isHorizontal(edge)) {
+                    int x2 = x + Edges.dx(direction) * length;
+                    addHorizontalEdge(Math.min(x, x2), Math.max(x, x2), z, direction == Edges.EAST);
+
+                    int added = edgeCount - 1;
+
+                    if (anchorEdge == -1 || z < startZ[anchorEdge] ||
+                            z == startZ[anchorEdge] && Math.min(x, x2) < Math.min(startX[anchorEdge], endX[anchorEdge])) {
+                        anchorEdge = added;
+                    }
+                } else {
+                    addEdge(x, z, x, z + Edges.dz(direction) * length);
+                }
+
+                next[edgeCount - 1] = edgeCount;
+                loopOf[edgeCount - 1] = loopCount;
+                i += length;
+            }
+
+            next[edgeCount - 1] = first;
+            anchor[loopCount++] = anchorEdge;
+        }
+
+        private void sortHorizontalEdges() {
+            IntArrays.quickSort(horizontal, 0, horizontalCount, (a, b) -> startZ[a] != startZ[b]
+                    ? Integer.compare(startZ[a], startZ[b])
+                    : Integer.compare(Math.min(startX[a], endX[a]), Math.min(startX[b], endX[b])));
+        }
+
+        private boolean isHole(int loop) {
+            return direction(anchor[loop]) == Edges.WEST;
+        }
+
+        /**
+         * The top-left corner of the loop, where the bridge to the edge above is attached.
+         */
+        private int bridgeX(int loop) {
+            return isHole(loop) ? endX[anchor[loop]] : startX[anchor[loop]];
+        }
+
+        private int bridgeZ(int loop) {
+            return startZ[anchor[loop]];
+        }
+
+        /**
+         * The edge of the loop that starts at its bridge point.
+         */
+        private int entry(int loop) {
+            return isHole(loop) ? next[anchor[loop]] : anchor[loop];
+        }
+
+        private void bridge() {
+            // the last horizontal edge above each column
+            var edgeAbove = context.edgeAbove();
+
+            target = context.buffer(MergeContext.TARGET, loopCount);
+            topLevel = context.buffer(MergeContext.TOP_LEVEL, loopCount);
+            childStart = context.buffer(MergeContext.CHILD_START, edgeCount + 1);
+            Arrays.fill(childStart, 0, edgeCount + 1, 0);
+
+            for (int i = 0; i < horizontalCount; i++) {
+                int edge = horizontal[i];
+                int loop = loopOf[edge];
+
+                if (anchor[loop] == edge) {
+                    int t = edgeAbove.get(bridgeX(loop));
+                    target[loop] = t;
+
+                    if (t == -1) {
+                        topLevel[topLevelCount++] = loop;
+                    } else {
+                        childStart[t + 1]++;
+                    }
+                }
+
+                for (int x = Math.min(startX[edge], endX[edge]), end = Math.max(startX[edge], endX[edge]); x < end; x++) {
+                    edgeAbove.put(x, edge);
+                }
+            }
+
+            for (int edge = 0; edge < edgeCount; edge++) {
+                childStart[edge + 1] += childStart[edge];
+            }
+
+            children = context.buffer(MergeContext.CHILDREN, childStart[edgeCount]);
+            int[] filled = context.buffer(MergeContext.FILLED, edgeCount);
+            System.arraycopy(childStart, 0, filled, 0, edgeCount);
+
+            for (int loop = 0; loop < loopCount; loop++) {
+                int t = target[loop];
+
+                if (t == -1) {
+                    continue;
+                }
+
+                // keep the children in the order they are passed when walking along the target edge
+                int i = filled[t]++;
+                int x = bridgeX(loop);
+                boolean east = direction(t) == Edges.EAST;
+
+                while (childStart[t] < i && (east ? x < bridgeX(children[i - 1]) : bridgeX(children[i - 1]) < x)) {
+                    children[i] = children[i - 1];
+                    i--;
+                }
+
+                children[i] = loop;
+            }
+        }
+
+        private List<Vector2d> assemble() {
+            return assemble(1);
+        }
+
+        private List<Vector2d> assemble(int scale) {
+            bridge();
+            emit();
+            return toPoints(scale);
+        }
+
+        private List<Polygon> assemblePolygons(int scale) {
+            bridge();
+
+            pointX = context.buffer(MergeContext.POINT_X, 16);
+            pointZ = context.buffer(MergeContext.POINT_Z, pointX.length);
+
+            List<List<Vector2d>> outers = new ArrayList<>();
+            List<List<List<Vector2d>>> holes = new ArrayList<>();
+            int[] polygonOf = context.buffer(MergeContext.POLYGON_OF, loopCount);
+
+            // from top to bottom, so the loop above a hole is always grouped before the hole
+            for (int i = 0; i < horizontalCount; i++) {
+                int edge = horizontal[i];
+                int loop = loopOf[edge];
+
+                if (anchor[loop] != edge) {
+                    continue;
+                }
+
+                if (isHole(loop)) {
+                    // the edge above a hole bounds the same island, either its outer ring or another of its holes
+                    int polygon = polygonOf[loopOf[target[loop]]];
+                    polygonOf[loop] = polygon;
+                    holes.get(polygon).add(ring(loop, scale));
+                } else {
+                    polygonOf[loop] = outers.size();
+                    outers.add(ring(loop, scale));
+                    holes.add(new ArrayList<>(0));
+                }
+            }
+
+            List<Polygon> result = new ArrayList<>(outers.size());
+
+            for (int i = 0; i < outers.size(); i++) {
+                result.add(new Polygon(outers.get(i), holes.get(i)));
+            }
+
+            return result;
+        }
+
+        private List<Vector2d> ring(int loop, int scale) {
+            pointCount = 0;
+            int first = anchor[loop];
+            int edge = first;
+
+            do {
+                addPoint(startX[edge], startZ[edge]);
+                edge = next[edge];
+            } while (edge != first);
+
+            closePoints();
+            return toPoints(scale);
+        }
+
+        private List<Vector2d> toPoints(int scale) {
+            List<Vector2d> result = new ArrayList<>(pointCount);
+
+            for (int i = 0; i < pointCount; i++) {
+                result.add(new Vector2d(pointX[i] * scale << 8, pointZ[i] * scale << 8));
+            }
+
+            return result;
+        }
+
+        private void emit() {
+            pointX = context.buffer(MergeContext.POINT_X, edgeCount);
+            pointZ = context.buffer(MergeContext.POINT_Z, pointX.length);
+
+            int[] stackLoop = new int[16];
+            int[] stackEdge = new int[16];
+            int[] stackChild = new int[16];
+
+            for (int i = 0; i < topLevelCount; i++) {
+                int root = topLevel[i];
+
+                if (i != 0) {
+                    addPoint(bridgeX(root), bridgeZ(root));
+                }
+
+                int depth = 0;
+                stackLoop[0] = root;
+                stackEdge[0] = entry(root);
+                stackChild[0] = childStart[stackEdge[0]];
+                addPoint(startX[stackEdge[0]], startZ[stackEdge[0]]);
+
+                while (depth >= 0) {
+                    int edge = stackEdge[depth];
+
+                    if (stackChild[depth] < childStart[edge + 1]) {
+                        int child = children[stackChild[depth]++];
+
+                        addPoint(bridgeX(child), startZ[edge]);
+                        addPoint(bridgeX(child), bridgeZ(child));
+
+                        if (++depth == stackLoop.length) {
+                            stackLoop = IntArrays.grow(stackLoop, depth + 1);
+                            stackEdge = IntArrays.grow(stackEdge, depth + 1);
+                            stackChild = IntArrays.grow(stackChild, depth + 1);
+                        }
+
+                        stackLoop[depth] = child;
+                        stackEdge[depth] = entry(child);
+                        stackChild[depth] = childStart[stackEdge[depth]];
+                        continue;
+                    }
+
+                    int nextEdge = next[edge];
+                    int loop = stackLoop[depth];
+
+                    if (nextEdge != entry(loop)) {
+                        stackEdge[depth] = nextEdge;
+                        stackChild[depth] = childStart[nextEdge];
+                        addPoint(startX[nextEdge], startZ[nextEdge]);
+                        continue;
+                    }
+
+                    // back at the bridge point, return to the edge above
+                    addPoint(bridgeX(loop), bridgeZ(loop));
+
+                    if (--depth >= 0) {
+                        addPoint(bridgeX(loop), startZ[stackEdge[depth]]);
+                    }
+                }
+            }
+
+            // walk back over the bridges between the top-level loops
+            for (int i = topLevelCount - 2; i > 0; i--) {
+                addPoint(bridgeX(topLevel[i]), bridgeZ(topLevel[i]));
+            }
+
+            closePoints();
+        }
+
+        private void addPoint(int x, int z) {
+            int n = pointCount;
+
+            if (0 < n && pointX[n - 1] == x && pointZ[n - 1] == z) {
+                return;
+            }
+
+            if (1 < n && isStraight(pointX[n - 2], pointZ[n - 2], pointX[n - 1], pointZ[n - 1], x, z)) {
+                pointX[n - 1] = x;
+                pointZ[n - 1] = z;
+                return;
+            }
+
+            if (n == pointX.length) {
+                pointX = IntArrays.grow(pointX, n + 1);
+                pointZ = IntArrays.grow(pointZ, n + 1);
+            }
+
+            pointX[n] = x;
+            pointZ[n] = z;
+            pointCount++;
+        }
+
+        private void closePoints() {
+            if (1 < pointCount && pointX[pointCount - 1] == pointX[0] && pointZ[pointCount - 1] == pointZ[0]) {
+                pointCount--;
+            }
+
+            if (2 < pointCount && isStraight(pointX[pointCount - 2], pointZ[pointCount - 2], pointX[pointCount - 1], pointZ[pointCount - 1], pointX[0], pointZ[0])) {
+                pointCount--;
+            }
+
+            if (2 < pointCount && isStraight(pointX[pointCount - 1], pointZ[pointCount - 1], pointX[0], pointZ[0], pointX[1], pointZ[1])) {
+                System.arraycopy(pointX, 1, pointX, 0, pointCount - 1);
+                System.arraycopy(pointZ, 1, pointZ, 0, pointCount - 1);
+                pointCount--;
+            }
+        }
+
+        /**
+         * Whether b lies on the segment from a to c and the direction does not turn back.
+         */
+        private static boolean isStraight(int ax, int az, int bx, int bz, int cx, int cz) {
+            long dx1 = bx - ax;
+            long dz1 = bz - az;
+            long dx2 = cx - bx;
+            long dz2 = cz - bz;
+            return dx1 * dz2 - dz1 * dx2 == 0 && 0 < dx1 * dx2 + dz1 * dz2;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package net.okocraft.foliaregionvisualizer;
 
 import com.flowpowered.math.vector.Vector2d;
-import io.papermc.paper.util.CoordinateUtils;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.jetbrains.annotations.NotNull;
@@ -16,8 +15,8 @@ public class FoliaRegionSiro {
         var first = new Line().start(Integer.MAX_VALUE, Integer.MAX_VALUE);
 
         sections.forEach(sectionKey -> {
-            int x1 = CoordinateUtils.getChunkX(sectionKey);
-            int z1 = CoordinateUtils.getChunkZ(sectionKey);
+            int x1 = SectionKeys.getX(sectionKey);
+            int z1 = SectionKeys.getZ(sectionKey);
 
             if (hasSectionsOnAllSides(sections, x1, z1)) {
                 return;
@@ -26,10 +25,10 @@ public class FoliaRegionSiro {
             int x2 = x1 + 1;
             int z2 = z1 + 1;
 
-            sectionKeys.add(CoordinateUtils.getChunkKey(x1, z1));
-            sectionKeys.add(CoordinateUtils.getChunkKey(x1, z2));
-            sectionKeys.add(CoordinateUtils.getChunkKey(x2, z1));
-            sectionKeys.add(CoordinateUtils.getChunkKey(x2, z2));
+            sectionKeys.add(SectionKeys.getKey(x1, z1));
+            sectionKeys.add(SectionKeys.getKey(x1, z2));
+            sectionKeys.add(SectionKeys.getKey(x2, z1));
+            sectionKeys.add(SectionKeys.getKey(x2, z2));
 
             if (x1 < first.startX()) {
                 first.startX(x1);
@@ -56,7 +55,7 @@ public class FoliaRegionSiro {
 
             if (sectionKeys.contains(nextSec)) {
                 points.add(new Vector2d(x << 8, z << 8));
-                currentLine.start(x, z).end(CoordinateUtils.getChunkX(nextSec), CoordinateUtils.getChunkZ(nextSec));
+                currentLine.start(x, z).end(SectionKeys.getX(nextSec), SectionKeys.getZ(nextSec));
                 direction = turnLeft(direction);
                 continue;
             }
@@ -64,14 +63,14 @@ public class FoliaRegionSiro {
             nextSec = forwardSectionKey(direction, x, z);
 
             if (sectionKeys.contains(nextSec)) {
-                currentLine.end(CoordinateUtils.getChunkX(nextSec), CoordinateUtils.getChunkZ(nextSec));
+                currentLine.end(SectionKeys.getX(nextSec), SectionKeys.getZ(nextSec));
                 continue;
             }
 
             nextSec = rightSideSectionKey(direction, x, z);
 
             points.add(new Vector2d(x << 8, z << 8));
-            currentLine.start(x, z).end(CoordinateUtils.getChunkX(nextSec), CoordinateUtils.getChunkZ(nextSec));
+            currentLine.start(x, z).end(SectionKeys.getX(nextSec), SectionKeys.getZ(nextSec));
             direction = turnRight(direction);
         }
 
@@ -86,7 +85,7 @@ public class FoliaRegionSiro {
     }
 
     private static boolean checkSection(@NotNull LongSet sections, int x, int z) {
-        return sections.contains(CoordinateUtils.getChunkKey(x, z));
+        return sections.contains(SectionKeys.getKey(x, z));
     }
 
     private static void findFirstLine(@NotNull LongSet sectionKeys, @NotNull Line firstLine) {
@@ -127,35 +126,35 @@ public class FoliaRegionSiro {
     private static long leftSideSectionKey(int direction, int x, int z) {
     /*
         if (direction == TOP_TO_BOTTOM) { // 2 0b10
-            return CoordinateUtils.getChunkKey(x + 1, z);
+            return SectionKeys.getKey(x + 1, z);
         } else if (direction == BOTTOM_TO_TOP) { // 0 0b00
-            return CoordinateUtils.getChunkKey(x - 1, z);
+            return SectionKeys.getKey(x - 1, z);
         } else if (direction == LEFT_TO_RIGHT) { // 1 0b01
-            return CoordinateUtils.getChunkKey(x, z - 1);
+            return SectionKeys.getKey(x, z - 1);
         } else /* if (direction == RIGHT_TO_LEFT) / { // 3 0b11
-            return CoordinateUtils.getChunkKey(x, z + 1);
+            return SectionKeys.getKey(x, z + 1);
         }
     */
         if ((direction & 1) == 0) {
-            return CoordinateUtils.getChunkKey((direction & 2) == 0 ? x - 1 : x + 1, z);
+            return SectionKeys.getKey((direction & 2) == 0 ? x - 1 : x + 1, z);
         } else {
-            return CoordinateUtils.getChunkKey(x, (direction & 2) == 0 ? z - 1 : z + 1);
+            return SectionKeys.getKey(x, (direction & 2) == 0 ? z - 1 : z + 1);
         }
     }
 
     private static long rightSideSectionKey(int direction, int x, int z) {
         if ((direction & 1) == 0) {
-            return CoordinateUtils.getChunkKey((direction & 2) == 0 ? x + 1 : x - 1, z);
+            return SectionKeys.getKey((direction & 2) == 0 ? x + 1 : x - 1, z);
         } else {
-            return CoordinateUtils.getChunkKey(x, (direction & 2) == 0 ? z + 1 : z - 1);
+            return SectionKeys.getKey(x, (direction & 2) == 0 ? z + 1 : z - 1);
         }
     }
 
     private static long forwardSectionKey(int direction, int x, int z) {
         if ((direction & 1) == 0) {
-            return CoordinateUtils.getChunkKey(x, (direction & 2) == 0 ? z - 1 : z + 1);
+            return SectionKeys.getKey(x, (direction & 2) == 0 ? z - 1 : z + 1);
         } else {
-            return CoordinateUtils.getChunkKey((direction & 2) == 0 ? x + 1 : x - 1, z);
+            return SectionKeys.getKey((direction & 2) == 0 ? x + 1 : x - 1, z);
         }
     }
 }
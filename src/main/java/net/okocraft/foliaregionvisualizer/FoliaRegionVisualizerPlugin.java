@@ -2,19 +2,36 @@ package net.okocraft.foliaregionvisualizer;
 
 import de.bluecolored.bluemap.api.BlueMapAPI;
 import de.bluecolored.bluemap.api.math.Color;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.World;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.regex.Pattern;
 
 public class FoliaRegionVisualizerPlugin extends JavaPlugin {
 
+    private static final String MBEAN_NAME = "net.okocraft.foliaregionvisualizer:type=Metrics";
+
     private VisualizerService service;
+    private UpdateScheduler scheduler;
     private final AtomicBoolean enabled = new AtomicBoolean();
+    private final Metrics metrics = new Metrics();
+    private PlayerTracker playerTracker;
+    private BlueMapRenderer blueMapRenderer;
+    private ScheduledTask updateTask;
 
     @Override
     public void onLoad() {
@@ -24,44 +41,234 @@ public class FoliaRegionVisualizerPlugin extends JavaPlugin {
 
     @Override
     public void onEnable() {
-        BlueMapAPI.onEnable(this::onBlueMapEnabled);
-        BlueMapAPI.onDisable(this::onBlueMapDisabled);
-
-        if (false)
-            getServer().getAsyncScheduler().runNow(this, ignored -> {
-                Benchmark.benchmark(Benchmark.createSections(5), FoliaRegionSiro::merge);
-                Benchmark.benchmark(Benchmark.createWTFSections(5), FoliaRegionLazy2::merge);
-            });
+        // first, because the service reads the tracker when it is created, and BlueMapAPI.onEnable calls back right
+        // away if BlueMap is already running, so an update could otherwise run before the players are tracked
+        this.playerTracker = new PlayerTracker(this, getConfig().getLong("player-update-interval-ticks", 10));
+        getServer().getPluginManager().registerEvents(this.playerTracker, this);
+        this.playerTracker.start();
+
+        var service = createService();
+        var rendererNames = getConfig().isList("renderers") ? getConfig().getStringList("renderers") : List.of("bluemap");
+        var renderers = rendererNames.stream().map(name -> name.toLowerCase(Locale.ROOT)).toList();
+
+        if (renderers.contains("geojson")) {
+            service.addRenderer(new GeoJsonRenderer(
+                    getDataFolder().toPath().resolve(getConfig().getString("geojson.directory", "geojson")),
+                    getConfig().getInt("geojson.tile-size", 4096),
+                    getLogger()
+            ));
+        }
+
+        if (renderers.contains("snapshot")) {
+            service.addRenderer(new SnapshotWriter(
+                    getDataFolder().toPath().resolve(getConfig().getString("snapshot.directory", "snapshots")),
+                    "binary".equalsIgnoreCase(getConfig().getString("snapshot.format", "geojson")) ? SnapshotWriter.Format.BINARY : SnapshotWriter.Format.GEOJSON,
+                    getLogger()
+            ));
+        }
+
+        this.service = service;
+        this.enabled.set(true);
+        startUpdates(service);
+
+        if (renderers.contains("bluemap")) {
+            BlueMapAPI.onEnable(this::onBlueMapEnabled);
+            BlueMapAPI.onDisable(this::onBlueMapDisabled);
+        }
+
+        var command = getCommand("foliaregionvisualizer");
+
+        if (command != null) {
+            var executor = new VisualizerCommand(this, this.metrics);
+            command.setExecutor(executor);
+            command.setTabCompleter(executor);
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.metrics, new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            getLogger().log(Level.WARNING, "Could not register the metrics MBean", e);
+        }
     }
 
     @Override
     public void onDisable() {
         this.enabled.set(false);
-        this.service.markerSetProvider.clear();
+        stopUpdates();
         getServer().getAsyncScheduler().cancelTasks(this);
+
+        if (this.playerTracker != null) {
+            this.playerTracker.stop();
+        }
+
+        if (this.service != null) {
+            this.service.clear();
+
+            if (this.service.recorder != null) {
+                this.service.recorder.close();
+            }
+
+            this.service.shutdown();
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (JMException ignored) {
+        }
+    }
+
+    private @NotNull VisualizerService createService() {
+        var service = new VisualizerService(readMergeThreads());
+        service.metrics = this.metrics;
+        service.playerTracker = this.playerTracker;
+        service.palette = new RegionPalette(readSpawnColor(), 32);
+        service.detailLevels = readDetailLevels();
+        service.renderFullRegions = "full".equalsIgnoreCase(getConfig().getString("render-mode", "players"));
+        service.mergeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(getConfig().getLong("merge-time-budget-millis", 0));
+        service.mergeCache = new MergeCache(
+                getConfig().getInt("merge-cache.max-entries", 1024),
+                getConfig().getLong("merge-cache.max-age-seconds", 300),
+                TimeUnit.SECONDS
+        );
+        this.metrics.setMergeCache(service.mergeCache);
+
+        if (getConfig().getBoolean("recorder.enabled", false)) {
+            service.recorder = new RegionRecorder(
+                    getDataFolder().toPath().resolve(getConfig().getString("recorder.directory", "history")),
+                    getConfig().getLong("recorder.max-file-size-mb", 64) * 1024 * 1024,
+                    getConfig().getInt("recorder.max-files", 8),
+                    getLogger()
+            );
+        }
+
+        return service;
+    }
+
+    private void startUpdates(@NotNull VisualizerService service) {
+        var scheduler = new UpdateScheduler(
+                getConfig().getLong("update-interval.min", 1000),
+                getConfig().getLong("update-interval.max", 30000),
+                getConfig().getDouble("update-interval.cpu-budget", 0.05)
+        );
+        this.scheduler = scheduler;
+        long pollMillis = Math.min(Math.max(scheduler.getMinIntervalMillis(), 50), 1000);
+
+        // the task of an earlier start would keep updating with its own service, so it is cancelled by its handle
+        stopUpdates();
+        this.updateTask = getServer().getAsyncScheduler().runAtFixedRate(this, task -> {
+            var worlds = List.copyOf(getServer().getWorlds());
+            scheduler.retainWorlds(worlds.stream().map(World::getUID).toList());
+            long now = System.currentTimeMillis();
+
+            // every world is updated by its own task, so a world with large regions does not delay the others
+            for (var world : worlds) {
+                var uid = world.getUID();
+
+                if (!scheduler.isDue(uid, now) || !service.tryStartUpdate(uid)) {
+                    continue; // not yet, or the previous update is still running
+                }
+
+                getServer().getAsyncScheduler().runNow(this, ignored -> {
+                    long start = System.nanoTime();
+                    var result = VisualizerService.UpdateResult.SKIPPED;
+
+                    try {
+                        if (this.enabled.get()) {
+                            result = service.update(world);
+                        }
+                    } catch (RuntimeException e) {
+                        this.metrics.recordFailedUpdate();
+                        throw e;
+                    } finally {
+                        // a failed or skipped update says nothing about how often the world changes
+                        if (result.skipped()) {
+                            scheduler.recordSkipped(uid);
+                        } else {
+                            scheduler.recordUpdate(uid, System.nanoTime() - start, result.markerCount(), result.changedCount());
+                        }
+
+                        service.finishUpdate(uid);
+                    }
+                });
+            }
+        }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopUpdates() {
+        var task = this.updateTask;
+
+        if (task != null) {
+            task.cancel();
+            this.updateTask = null;
+        }
     }
 
     private void onBlueMapEnabled(@NotNull BlueMapAPI api) {
-        this.service = new VisualizerService(new MarkerSetProvider(
+        var service = this.service;
+        var renderer = new BlueMapRenderer(new MarkerSetProvider(
                 api,
                 getConfig().getString("markerset-name", "Folia Regions"),
                 getConfig().getBoolean("default-hidden", true),
-                Set.copyOf(getConfig().getStringList("disabled-maps"))
-        ));
-        this.service.spawnColor = readSpawnColor();
-        this.enabled.set(true);
+                Set.copyOf(getConfig().getStringList("disabled-maps")),
+                this.metrics
+        ), this.metrics);
 
-        getServer().getAsyncScheduler().runAtFixedRate(this, task -> {
-            if (!this.enabled.get()) {
-                task.cancel();
-            }
+        // BlueMap was reloaded, the markers of the old instance are gone with it
+        if (this.blueMapRenderer != null) {
+            service.removeRenderer(this.blueMapRenderer);
+        }
+
+        this.blueMapRenderer = renderer;
+        service.addRenderer(renderer);
 
-            List.copyOf(getServer().getWorlds()).forEach(this.service::update);
-        }, 5, 5, TimeUnit.SECONDS);
+        if (getConfig().getBoolean("heatmap.enabled", false)) {
+            service.heatmap = new LoadHeatmap(new MarkerSetProvider(
+                    api,
+                    "FoliaRegionVisualizer-load-",
+                    getConfig().getString("heatmap.markerset-name", "Folia Region Load"),
+                    getConfig().getBoolean("default-hidden", true),
+                    Set.copyOf(getConfig().getStringList("disabled-maps")),
+                    this.metrics
+            ), this.metrics, getConfig().getInt("heatmap.window", 12), getConfig().getInt("heatmap.tolerance", 1), 0.3f);
+        }
     }
 
     private void onBlueMapDisabled(@NotNull BlueMapAPI api) {
-        this.enabled.set(false);
+        if (this.blueMapRenderer != null) {
+            this.service.removeRenderer(this.blueMapRenderer);
+            this.blueMapRenderer = null;
+        }
+
+        this.service.heatmap = null;
+    }
+
+    /**
+     * Returns the current interval between two updates of the world, or {@code -1} if the world is not updated.
+     */
+    public long getUpdateIntervalMillis(@NotNull UUID worldUid) {
+        var scheduler = this.scheduler;
+        return scheduler != null && this.enabled.get() ? scheduler.getIntervalMillis(worldUid) : -1;
+    }
+
+    private int readMergeThreads() {
+        int threads = getConfig().getInt("merge-threads", 0);
+        return 0 < threads ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    private List<VisualizerService.DetailLevel> readDetailLevels() {
+        List<VisualizerService.DetailLevel> levels = new ArrayList<>();
+        levels.add(new VisualizerService.DetailLevel(Math.max(1, getConfig().getInt("simplify-tolerance", 1)), 0));
+
+        for (var map : getConfig().getMapList("levels-of-detail")) {
+            if (map.get("tolerance") instanceof Number tolerance && map.get("min-distance") instanceof Number minDistance) {
+                levels.add(new VisualizerService.DetailLevel(Math.max(1, tolerance.intValue()), minDistance.doubleValue()));
+            } else {
+                getLogger().warning("Invalid level of detail: " + map);
+            }
+        }
+
+        levels.sort(Comparator.comparingDouble(VisualizerService.DetailLevel::minDistance));
+        return List.copyOf(levels);
     }
 
     private Color readSpawnColor() {
@@ -0,0 +1,84 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import de.bluecolored.bluemap.api.math.Color;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Writes outlines as GeoJSON features, with x and z in blocks as the coordinates.
+ */
+final class GeoJson {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private GeoJson() {
+        throw new UnsupportedOperationException();
+    }
+
+    static void beginFeatureCollection(@NotNull StringBuilder out) {
+        out.append("{\"type\":\"FeatureCollection\",\"features\":[");
+    }
+
+    static void endFeatureCollection(@NotNull StringBuilder out) {
+        out.append("]}");
+    }
+
+    /**
+     * Appends a feature of the polygon, preceded by a comma unless it is the first of its collection.
+     */
+    static void appendFeature(@NotNull StringBuilder out, boolean first, @NotNull RenderFrame.Region region, int level,
+                              @NotNull Polygon polygon) {
+        if (!first) {
+            out.append(',');
+        }
+
+        out.append("{\"type\":\"Feature\",\"properties\":{\"region\":").append(region.regionId())
+                .append(",\"level\":").append(level)
+                .append(",\"sections\":").append(region.sectionCount())
+                .append(",\"color\":\"");
+        appendColor(out, region.color());
+        out.append("\"},\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[");
+        appendRing(out, polygon.outer());
+
+        for (var hole : polygon.holes()) {
+            out.append(',');
+            appendRing(out, hole);
+        }
+
+        out.append("]}}");
+    }
+
+    /**
+     * Appends the ring as an array of positions, closed by repeating its first point as GeoJSON requires.
+     */
+    private static void appendRing(@NotNull StringBuilder out, @NotNull List<Vector2d> points) {
+        out.append('[');
+
+        for (var point : points) {
+            appendPosition(out, point);
+            out.append(',');
+        }
+
+        appendPosition(out, points.get(0));
+        out.append(']');
+    }
+
+    private static void appendPosition(@NotNull StringBuilder out, @NotNull Vector2d point) {
+        // the corners of sections are whole blocks
+        out.append('[').append((long) point.getX()).append(',').append((long) point.getY()).append(']');
+    }
+
+    private static void appendColor(@NotNull StringBuilder out, @NotNull Color color) {
+        out.append('#');
+        appendHex(out, color.getRed());
+        appendHex(out, color.getGreen());
+        appendHex(out, color.getBlue());
+        appendHex(out, Math.round(color.getAlpha() * 255));
+    }
+
+    private static void appendHex(@NotNull StringBuilder out, int value) {
+        out.append(HEX[value >> 4 & 0xF]).append(HEX[value & 0xF]);
+    }
+}
@@ -0,0 +1,206 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the outlines of each world to GeoJSON tiles on disk, for web maps that are lighter than BlueMap.
+ * <p>
+ * Every polygon is put into each square tile of {@code tileSize} blocks that its bounding box overlaps, so a client
+ * that loads the tiles in view gets every polygon that may be visible, and each tile is a
+ * {@code <tileX>_<tileZ>.geojson} file in the folder of its world. A polygon that spans several tiles is written to
+ * all of them and changes the hash of each. Only the tiles whose polygons changed are written
+ * again, each through a temporary file that is then moved over the old one, so a web server never serves half of a
+ * tile. The {@code index.json} of a world lists its tiles and is rewritten when tiles appear or disappear.
+ */
+final class GeoJsonRenderer implements RegionRenderer {
+
+    private static final String INDEX_FILE = "index.json";
+    private static final String TILE_SUFFIX = ".geojson";
+
+    private final Path directory;
+    private final int tileSize;
+    private final Logger logger;
+    private final Map<UUID, WorldTiles> worldMap = new ConcurrentHashMap<>();
+
+    GeoJsonRenderer(@NotNull Path directory, int tileSize, @NotNull Logger logger) {
+        this.directory = directory;
+        this.tileSize = Math.max(16, tileSize);
+        this.logger = logger;
+    }
+
+    @Override
+    public @NotNull VisualizerService.UpdateResult render(@NotNull RenderFrame frame) {
+        var world = this.worldMap.computeIfAbsent(frame.worldUid(), ignored -> new WorldTiles(this.directory.resolve(frame.worldName())));
+        var features = new Long2ObjectOpenHashMap<List<Feature>>();
+        var hashes = new Long2LongOpenHashMap();
+
+        for (var region : frame.regions()) {
+            for (int level = 0; level < region.levels().size(); level++) {
+                for (var polygon : region.levels().get(level)) {
+                    var feature = new Feature(region, level, polygon);
+                    long hash = VisualizerService.mixHash(VisualizerService.hashMarker(region.sectionCount(), polygon, region.color()), region.regionId() * 31 + level);
+
+                    // the holes are inside the outer ring, so its bounds are the bounds of the polygon
+                    int minX = Integer.MAX_VALUE;
+                    int minZ = Integer.MAX_VALUE;
+                    int maxX = Integer.MIN_VALUE;
+                    int maxZ = Integer.MIN_VALUE;
+
+                    for (var point : polygon.outer()) {
+                        minX = Math.min(minX, (int) point.getX());
+                        minZ = Math.min(minZ, (int) point.getY());
+                        maxX = Math.max(maxX, (int) point.getX());
+                        maxZ = Math.max(maxZ, (int) point.getY());
+                    }
+
+                    // the points are corners of blocks, so a polygon that ends on the edge of a tile is not in the next one
+                    for (int tileZ = Math.floorDiv(minZ, this.tileSize); tileZ <= Math.floorDiv(maxZ - 1, this.tileSize); tileZ++) {
+                        for (int tileX = Math.floorDiv(minX, this.tileSize); tileX <= Math.floorDiv(maxX - 1, this.tileSize); tileX++) {
+                            long tile = SectionKeys.getKey(tileX, tileZ);
+                            features.computeIfAbsent(tile, ignored -> new ArrayList<>()).add(feature);
+                            hashes.put(tile, VisualizerService.mixHash(hashes.get(tile), hash));
+                        }
+                    }
+                }
+            }
+        }
+
+        var written = world.hashes;
+        int changedCount = 0;
+        boolean tilesChanged = false;
+
+        for (var entry : features.long2ObjectEntrySet()) {
+            long tile = entry.getLongKey();
+            long hash = hashes.get(tile);
+
+            if (written.containsKey(tile) && written.get(tile) == hash) {
+                continue;
+            }
+
+            var out = new StringBuilder();
+            GeoJson.beginFeatureCollection(out);
+
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                var feature = entry.getValue().get(i);
+                GeoJson.appendFeature(out, i == 0, feature.region(), feature.level(), feature.polygon());
+            }
+
+            GeoJson.endFeatureCollection(out);
+
+            tilesChanged |= !written.containsKey(tile);
+
+            if (write(world.directory, getTileName(tile), out)) {
+                written.put(tile, hash);
+            } else {
+                written.remove(tile); // written again on the next update
+            }
+
+            changedCount++;
+        }
+
+        var removedTiles = new LongArrayList();
+
+        for (long tile : written.keySet()) {
+            if (!features.containsKey(tile)) {
+                removedTiles.add(tile);
+            }
+        }
+
+        for (int i = 0; i < removedTiles.size(); i++) {
+            long tile = removedTiles.getLong(i);
+            written.remove(tile);
+            delete(world.directory.resolve(getTileName(tile)));
+            changedCount++;
+            tilesChanged = true;
+        }
+
+        if (tilesChanged) {
+            writeIndex(world);
+        }
+
+        return new VisualizerService.UpdateResult(features.size(), changedCount);
+    }
+
+    @Override
+    public void clear() {
+        for (var world : this.worldMap.values()) {
+            for (long tile : world.hashes.keySet()) {
+                delete(world.directory.resolve(getTileName(tile)));
+            }
+
+            delete(world.directory.resolve(INDEX_FILE));
+        }
+
+        this.worldMap.clear();
+    }
+
+    private void writeIndex(@NotNull WorldTiles world) {
+        var out = new StringBuilder("{\"tileSize\":").append(this.tileSize).append(",\"tiles\":[");
+        boolean first = true;
+
+        for (long tile : world.hashes.keySet()) {
+            if (!first) {
+                out.append(',');
+            }
+
+            out.append('[').append(SectionKeys.getX(tile)).append(',').append(SectionKeys.getZ(tile)).append(']');
+            first = false;
+        }
+
+        out.append("]}");
+        write(world.directory, INDEX_FILE, out);
+    }
+
+    private boolean write(@NotNull Path directory, @NotNull String fileName, @NotNull CharSequence content) {
+        try {
+            Files.createDirectories(directory);
+            var temp = directory.resolve(fileName + ".tmp");
+            Files.writeString(temp, content);
+            Files.move(temp, directory.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not write " + directory.resolve(fileName), e);
+            return false;
+        }
+    }
+
+    private void delete(@NotNull Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not delete " + file, e);
+        }
+    }
+
+    private static @NotNull String getTileName(long tile) {
+        return SectionKeys.getX(tile) + "_" + SectionKeys.getZ(tile) + TILE_SUFFIX;
+    }
+
+    private record Feature(@NotNull RenderFrame.Region region, int level, @NotNull Polygon polygon) {
+    }
+
+    /**
+     * The tiles written for a world and the hashes of their polygons, only touched by the updates of the world.
+     */
+    private record WorldTiles(@NotNull Path directory, @NotNull Long2LongOpenHashMap hashes) {
+
+        private WorldTiles(@NotNull Path directory) {
+            this(directory, new Long2LongOpenHashMap());
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the outline of a region between updates.
+ * <p>
+ * The cancelled-edge set, the traced loops and the polygon of each island are kept. Adding or removing a section only
+ * re-traces the loops that pass through the corners of the edges it changed, and only the islands whose loops changed
+ * are assembled again, the others keep their {@link Polygon} instances. The result is the same as
+ * {@link FoliaRegionScanline#mergePolygons(LongSet)} of the current sections.
+ * <p>
+ * {@link #update(LongList, LongList)} costs in proportion to the changed sections and the islands they touch.
+ * {@link #update(SectionBitmap)} has to find the difference first by comparing every word of both bitmaps, so it is
+ * meant for small shapes, such as the windows around players.
+ */
+final class IncrementalOutline {
+
+    // right, straight, left
+    private static final int[] TURNS = {1, 0, 3};
+
+    private final SectionBitmap sections = new SectionBitmap();
+    private final LongOpenHashSet edges = new LongOpenHashSet();
+    private final LongOpenHashSet untracedEdges = new LongOpenHashSet();
+    private final Long2IntOpenHashMap loopByEdge = new Long2IntOpenHashMap();
+    private final Int2ObjectOpenHashMap<Loop> loops = new Int2ObjectOpenHashMap<>();
+    private final LongArrayList loopBuffer = new LongArrayList();
+    private int nextLoopId;
+
+    // by the id of their outer loop
+    private final Int2ObjectOpenHashMap<Island> islands = new Int2ObjectOpenHashMap<>();
+    private final IntOpenHashSet changedIslands = new IntOpenHashSet();
+    // the holes whose outer loop was dissolved, grouped again on the next call of getPolygons
+    private final IntOpenHashSet orphanHoles = new IntOpenHashSet();
+
+    private @Nullable List<Polygon> polygons = List.of();
+
+    IncrementalOutline() {
+        this.loopByEdge.defaultReturnValue(-1);
+    }
+
+    /**
+     * Removes and adds the given sections. Sections that are already removed or added are ignored.
+     */
+    void update(@NotNull LongList added, @NotNull LongList removed) {
+        for (int i = 0; i < removed.size(); i++) {
+            removeSection(removed.getLong(i));
+        }
+
+        for (int i = 0; i < added.size(); i++) {
+            addSection(added.getLong(i));
+        }
+    }
+
+    /**
+     * Replaces the sections with the given ones, applying only the difference.
+     */
+    void update(@NotNull LongSet sections) {
+        update(SectionBitmap.of(sections));
+    }
+
+    /**
+     * Replaces the sections with the given ones, finding the difference word by word.
+     */
+    void update(@NotNull SectionBitmap sections) {
+        for (long tileKey : this.sections.tiles().keySet().toLongArray()) {
+            long[] tile = this.sections.getTile(tileKey);
+            long[] newTile = sections.getTile(tileKey);
+            int baseX = SectionKeys.getX(tileKey) << SectionBitmap.TILE_SHIFT;
+            int baseZ = SectionKeys.getZ(tileKey) << SectionBitmap.TILE_SHIFT;
+
+            for (int row = 0; row < SectionBitmap.TILE_SIZE; row++) {
+                for (long removed = newTile != null ? tile[row] & ~newTile[row] : tile[row]; removed != 0; removed &= removed - 1) {
+                    removeSection(baseX + Long.numberOfTrailingZeros(removed), baseZ + row);
+                }
+            }
+        }
+
+        for (var entry : sections.tiles().long2ObjectEntrySet()) {
+            long tileKey = entry.getLongKey();
+            long[] newTile = entry.getValue();
+            int baseX = SectionKeys.getX(tileKey) << SectionBitmap.TILE_SHIFT;
+            int baseZ = SectionKeys.getZ(tileKey) << SectionBitmap.TILE_SHIFT;
+
+            for (int row = 0; row < SectionBitmap.TILE_SIZE; row++) {
+                long[] tile = this.sections.getTile(tileKey);
+
+                for (long added = tile != null ? newTile[row] & ~tile[row] : newTile[row]; added != 0; added &= added - 1) {
+                    addSection(baseX + Long.numberOfTrailingZeros(added), baseZ + row);
+                }
+            }
+        }
+    }
+
+    boolean addSection(long sectionKey) {
+        return addSection(SectionKeys.getX(sectionKey), SectionKeys.getZ(sectionKey));
+    }
+
+    boolean addSection(int x, int z) {
+        if (!this.sections.add(x, z)) {
+            return false;
+        }
+
+        toggleSection(x, z, true);
+        return true;
+    }
+
+    boolean removeSection(long sectionKey) {
+        return removeSection(SectionKeys.getX(sectionKey), SectionKeys.getZ(sectionKey));
+    }
+
+    boolean removeSection(int x, int z) {
+        if (!this.sections.remove(x, z)) {
+            return false;
+        }
+
+        toggleSection(x, z, false);
+        return true;
+    }
+
+    int size() {
+        return this.sections.size();
+    }
+
+    /**
+     * Returns one polygon per island in the order of their top-left corners, re-tracing the loops that were changed
+     * since the last call and assembling only the islands they belong to.
+     */
+    @NotNull List<Polygon> getPolygons() {
+        if (this.polygons != null) {
+            return this.polygons;
+        }
+
+        int firstLoopId = this.nextLoopId;
+        traceUntracedEdges();
+
+        for (int loopId = firstLoopId; loopId < this.nextLoopId; loopId++) {
+            var loop = this.loops.get(loopId);
+
+            if (loop.hole) {
+                this.orphanHoles.add(loopId);
+            } else {
+                loop.island = loopId;
+                this.islands.put(loopId, new Island());
+                this.changedIslands.add(loopId);
+            }
+        }
+
+        // from top to bottom, so a hole below another one is grouped after it
+        int[] holes = this.orphanHoles.toIntArray();
+        IntArrays.quickSort(holes, this::compareTopLeft);
+
+        for (int holeId : holes) {
+            var hole = this.loops.get(holeId);
+            hole.island = getIslandAbove(hole);
+            this.islands.get(hole.island).holes.add(holeId);
+            this.changedIslands.add(hole.island);
+        }
+
+        this.orphanHoles.clear();
+
+        for (int islandId : this.changedIslands) {
+            var island = this.islands.get(islandId);
+
+            if (island != null) {
+                island.polygon = assemble(islandId, island);
+            }
+        }
+
+        this.changedIslands.clear();
+
+        // the same order as mergePolygons, so the polygons keep their positions while the islands do not change
+        int[] islandIds = this.islands.keySet().toIntArray();
+        IntArrays.quickSort(islandIds, this::compareTopLeft);
+        List<Polygon> polygons = new ArrayList<>(islandIds.length);
+
+        for (int islandId : islandIds) {
+            polygons.add(this.islands.get(islandId).polygon);
+        }
+
+        this.polygons = polygons;
+        return polygons;
+    }
+
+    private int compareTopLeft(int loopId1, int loopId2) {
+        var loop1 = this.loops.get(loopId1);
+        var loop2 = this.loops.get(loopId2);
+        return loop1.topZ != loop2.topZ ? Integer.compare(loop1.topZ, loop2.topZ) : Integer.compare(loop1.topX, loop2.topX);
+    }
+
+    /**
+     * Returns the island of the first edge above the top-left corner of the hole, the same edge
+     * {@link FoliaRegionScanline} bridges the hole to. Only sections of the island lie between them.
+     */
+    private int getIslandAbove(@NotNull Loop hole) {
+        for (int z = hole.topZ - 1, limit = hole.topZ - this.sections.size(); limit <= z; z--) {
+            int loopId = this.loopByEdge.get(Edges.key(hole.topX, z, Edges.EAST));
+
+            if (loopId == -1) {
+                loopId = this.loopByEdge.get(Edges.key(hole.topX + 1, z, Edges.WEST));
+            }
+
+            if (loopId != -1) {
+                int island = this.loops.get(loopId).island;
+
+                if (island == -1) {
+                    throw new IllegalStateException("Loop above the hole at " + hole.topX + ", " + hole.topZ + " is not grouped");
+                }
+
+                return island;
+            }
+        }
+
+        throw new IllegalStateException("No edge above the hole at " + hole.topX + ", " + hole.topZ);
+    }
+
+    private @NotNull Polygon assemble(int outerId, @NotNull Island island) {
+        List<long[]> rings = new ArrayList<>(1 + island.holes.size());
+        rings.add(this.loops.get(outerId).edges);
+
+        for (int i = 0; i < island.holes.size(); i++) {
+            rings.add(this.loops.get(island.holes.getInt(i)).edges);
+        }
+
+        var polygons = FoliaRegionScanline.mergeLoopPolygons(rings);
+
+        if (polygons.size() != 1) {
+            throw new IllegalStateException("Island of loop " + outerId + " was assembled into " + polygons.size() + " polygons");
+        }
+
+        return polygons.get(0);
+    }
+
+    private void toggleSection(int x1, int z1, boolean add) {
+        int x2 = x1 + 1;
+        int z2 = z1 + 1;
+
+        toggleEdge(Edges.key(x1, z1, Edges.EAST), add);
+        toggleEdge(Edges.key(x2, z1, Edges.SOUTH), add);
+        toggleEdge(Edges.key(x2, z2, Edges.WEST), add);
+        toggleEdge(Edges.key(x1, z2, Edges.NORTH), add);
+    }
+
+    private void toggleEdge(long edge, boolean add) {
+        // an edge of the section is cancelled by the reversed edge of its neighbour
+        long reverse = Edges.reverse(edge);
+        long changed;
+
+        if (this.edges.remove(add ? reverse : edge)) {
+            changed = add ? reverse : edge;
+            this.untracedEdges.remove(changed);
+        } else {
+            changed = add ? edge : reverse;
+            this.edges.add(changed);
+            this.untracedEdges.add(changed);
+        }
+
+        // the edge may have broken a loop, or changed where the loops through its corners turn
+        dissolveLoopsAt(Edges.startX(changed), Edges.startZ(changed));
+        dissolveLoopsAt(Edges.endX(changed), Edges.endZ(changed));
+        this.polygons = null;
+    }
+
+    private void dissolveLoopsAt(int x, int z) {
+        for (int direction = 0; direction < 4; direction++) {
+            dissolveLoop(this.loopByEdge.get(Edges.key(x, z, direction)));
+            dissolveLoop(this.loopByEdge.get(Edges.key(x - Edges.dx(direction), z - Edges.dz(direction), direction)));
+        }
+    }
+
+    private void dissolveLoop(int loopId) {
+        if (loopId == -1) {
+            return;
+        }
+
+        var loop = this.loops.remove(loopId);
+
+        for (long edge : loop.edges) {
+            this.loopByEdge.remove(edge);
+
+            if (this.edges.contains(edge)) {
+                this.untracedEdges.add(edge);
+            }
+        }
+
+        if (!loop.hole) {
+            // the holes are grouped again, they may now belong to another island
+            for (int hole : this.islands.remove(loopId).holes) {
+                this.loops.get(hole).island = -1;
+                this.orphanHoles.add(hole);
+            }
+        } else if (loop.island == -1) {
+            this.orphanHoles.remove(loopId);
+        } else {
+            this.islands.get(loop.island).holes.rem(loopId);
+            this.changedIslands.add(loop.island);
+        }
+    }
+
+    private void traceUntracedEdges() {
+        while (!this.untracedEdges.isEmpty()) {
+            long first = this.untracedEdges.iterator().nextLong();
+            long edge = first;
+
+            this.loopBuffer.clear();
+
+            do {
+                if (!this.untracedEdges.remove(edge)) {
+                    throw new IllegalStateException("Edge is already traced: " + edge);
+                }
+
+                this.loopBuffer.add(edge);
+                edge = nextEdge(edge);
+            } while (edge != first);
+
+            int loopId = this.nextLoopId++;
+            long[] loop = this.loopBuffer.toLongArray();
+
+            for (long traced : loop) {
+                this.loopByEdge.put(traced, loopId);
+            }
+
+            this.loops.put(loopId, new Loop(loop));
+        }
+    }
+
+    /**
+     * Returns the edge following the given one, turning right where sections only touch diagonally
+     * (the same rule as {@link FoliaRegionScanline}).
+     */
+    private long nextEdge(long edge) {
+        int x = Edges.endX(edge);
+        int z = Edges.endZ(edge);
+        int direction = Edges.direction(edge);
+
+        for (int turn : TURNS) {
+            long candidate = Edges.key(x, z, direction + turn & 3);
+
+            if (this.edges.contains(candidate)) {
+                return candidate;
+            }
+        }
+
+        throw new IllegalStateException("Outline is not closed at " + x + ", " + z);
+    }
+
+    private static final class Loop {
+
+        private final long[] edges;
+        private final int topX;
+        private final int topZ;
+        private final boolean hole;
+        private int island = -1;
+
+        private Loop(long @NotNull [] edges) {
+            int topX = Integer.MAX_VALUE;
+            int topZ = Integer.MAX_VALUE;
+            boolean hole = false;
+
+            // the left end of the top line runs east on an outer ring and west on a hole, as in FoliaRegionScanline
+            for (long edge : edges) {
+                if (!Edges.isHorizontal(edge)) {
+                    continue;
+                }
+
+                int x = Math.min(Edges.startX(edge), Edges.endX(edge));
+                int z = Edges.startZ(edge);
+
+                if (z < topZ || z == topZ && x < topX) {
+                    topX = x;
+                    topZ = z;
+                    hole = Edges.direction(edge) == Edges.WEST;
+                }
+            }
+
+            this.edges = edges;
+            this.topX = topX;
+            this.topZ = topZ;
+            this.hole = hole;
+        }
+    }
+
+    private static final class Island {
+
+        private final IntArrayList holes = new IntArrayList();
+        private @Nullable Polygon polygon;
+    }
+}
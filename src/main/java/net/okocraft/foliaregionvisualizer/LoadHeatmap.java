@@ -0,0 +1,304 @@
+package net.okocraft.foliaregionvisualizer;
+
+import de.bluecolored.bluemap.api.markers.Marker;
+import de.bluecolored.bluemap.api.math.Color;
+import de.bluecolored.bluemap.api.math.Shape;
+import io.papermc.paper.threadedregions.TickRegions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A marker layer that colours every region by how much of its thread's time it spends ticking.
+ * <p>
+ * The load is read from the tick reports and the statistics Folia already keeps for each region, without any lock of
+ * the regionizer. A tick report is not free: Folia builds it from the tick history of the last 15 seconds on each
+ * call, holding the monitor of that history, which the region thread also takes once per tick. Each region is
+ * therefore sampled at most once every {@link #SAMPLE_INTERVAL_NANOS}, however short the update interval is, and the
+ * samples are averaged over the last {@code windowSize} of them, so a single slow tick does not make a region flash.
+ * <p>
+ * The heatmap shows whole regions, also when only the regions around players are rendered. The outlines of the
+ * renderers are reused when they are of whole regions with the same tolerance. The others are merged within a time
+ * budget as long as the renderers' one, and regions that did not fit keep their last outlines until the next update.
+ */
+final class LoadHeatmap {
+
+    private static final int RAMP_SIZE = 32;
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final MarkerSetProvider markerSetProvider;
+    private final Metrics metrics;
+    private final int windowSize;
+    private final int tolerance;
+    private final Color[] ramp = new Color[RAMP_SIZE];
+
+    private final Map<UUID, Long2ObjectMap<LoadWindow>> windowMap = new ConcurrentHashMap<>();
+    private final Map<UUID, Object2LongMap<String>> publishedHashMap = new ConcurrentHashMap<>();
+    private final Map<UUID, Long2ObjectMap<List<Polygon>>> lastPolygonMap = new ConcurrentHashMap<>();
+    private final Map<UUID, LongSet> deferredMap = new ConcurrentHashMap<>();
+
+    LoadHeatmap(@NotNull MarkerSetProvider markerSetProvider, @NotNull Metrics metrics, int windowSize, int tolerance, float alpha) {
+        this.markerSetProvider = markerSetProvider;
+        this.metrics = metrics;
+        this.windowSize = Math.max(1, windowSize);
+        this.tolerance = Math.max(1, tolerance);
+
+        for (int i = 0; i < RAMP_SIZE; i++) {
+            // from green (idle) to red (the thread is always busy)
+            float hue = (1.0f / 3) * (1 - (float) i / (RAMP_SIZE - 1));
+            this.ramp[i] = new Color(java.awt.Color.HSBtoRGB(hue, 0.9f, 0.9f), alpha);
+        }
+    }
+
+    @NotNull MarkerSetProvider getMarkerSetProvider() {
+        return this.markerSetProvider;
+    }
+
+    int getTolerance() {
+        return this.tolerance;
+    }
+
+    /**
+     * Samples the load of the regions in the snapshot and publishes the heatmap of the world.
+     *
+     * @param outlines the outlines of whole regions simplified with {@link #getTolerance()} by their region ids, which
+     *                 are used instead of merging the regions again, or {@code null} if there are none
+     * @param deadline the {@link System#nanoTime()} after which no merge is started
+     */
+    void update(@NotNull UUID worldUid, @NotNull RegionSnapshot snapshot, @Nullable Long2ObjectMap<List<Polygon>> outlines,
+               @NotNull MergeCache cache, @NotNull ForkJoinPool pool, long deadline) {
+        var markerSet = this.markerSetProvider.getOrCreate(worldUid);
+
+        if (markerSet == null) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        var windows = this.windowMap.computeIfAbsent(worldUid, ignored -> new Long2ObjectOpenHashMap<>());
+        var nextWindows = new Long2ObjectOpenHashMap<LoadWindow>(snapshot.size());
+        @SuppressWarnings("unchecked")
+        ForkJoinTask<List<Polygon>>[] merges = new ForkJoinTask[snapshot.size()];
+
+        // the regions that did not fit into the time budget last time are merged first
+        var previouslyDeferred = this.deferredMap.getOrDefault(worldUid, LongSet.of());
+        var deferred = new LongOpenHashSet();
+        this.deferredMap.put(worldUid, deferred);
+
+        var order = new IntArrayList(snapshot.size());
+
+        for (int index = 0; index < snapshot.size(); index++) {
+            if (previouslyDeferred.contains(snapshot.getRegionId(index))) {
+                order.add(index);
+            }
+        }
+
+        for (int index = 0; index < snapshot.size(); index++) {
+            if (!previouslyDeferred.contains(snapshot.getRegionId(index))) {
+                order.add(index);
+            }
+        }
+
+        for (int i = 0; i < order.size(); i++) {
+            int index = order.getInt(i);
+            long regionId = snapshot.getRegionId(index);
+            var window = windows.get(regionId);
+
+            if (window == null) {
+                window = new LoadWindow(this.windowSize);
+            }
+
+            if (window.isDue(now)) {
+                window.add(sample(snapshot.getData(index), now), now);
+            }
+
+            nextWindows.put(regionId, window);
+
+            if (outlines != null && outlines.containsKey(regionId)) {
+                continue; // no merge, the outline is taken as it is
+            }
+
+            merges[index] = pool.submit(() -> {
+                if (deadline < System.nanoTime()) {
+                    return null;
+                }
+
+                // the whole region is needed, not only the sections around players
+                return cache.merge(snapshot.getSectionBitmap(index), this.tolerance);
+            });
+        }
+
+        // regions that were merged or split start over
+        this.windowMap.put(worldUid, nextWindows);
+
+        var lastPolygons = this.lastPolygonMap.getOrDefault(worldUid, Long2ObjectMaps.emptyMap());
+        var nextPolygons = new Long2ObjectOpenHashMap<List<Polygon>>(snapshot.size());
+
+        var currentMarkers = markerSet.getMarkers();
+        Map<String, Marker> nextMarkers = new HashMap<>(currentMarkers.size());
+        var publishedHashes = this.publishedHashMap.computeIfAbsent(worldUid, ignored -> new Object2LongOpenHashMap<>());
+        int putCount = 0;
+
+        for (int index = 0; index < merges.length; index++) {
+            long regionId = snapshot.getRegionId(index);
+            var polygons = merges[index] != null ? merges[index].join() : outlines.get(regionId);
+
+            if (polygons == null) {
+                // out of time, shown as it was merged last time
+                deferred.add(regionId);
+                polygons = lastPolygons.get(regionId);
+
+                if (polygons == null) {
+                    continue;
+                }
+            }
+
+            nextPolygons.put(regionId, polygons);
+
+            if (polygons.isEmpty()) {
+                continue;
+            }
+
+            var window = nextWindows.get(regionId);
+            var color = this.ramp[(int) Math.min(RAMP_SIZE - 1, Math.max(0, window.meanUtilisation() * RAMP_SIZE))];
+            var name = "region-" + regionId;
+            var detail = String.format(Locale.ROOT, "%s: %.1f%% busy, %.2f ms/tick, %d entities, %d chunks, %d players",
+                    name, window.meanUtilisation() * 100, window.meanMillisPerTick(), window.entities, window.chunks, window.players);
+
+            for (int part = 0; part < polygons.size(); part++) {
+                var polygon = polygons.get(part);
+                var id = BlueMapRenderer.createGlobalId(worldUid, "load-" + regionId + (part == 0 ? "" : "-part" + part));
+                long hash = VisualizerService.mixHash(VisualizerService.hashMarker(snapshot.getSectionKeys(index).length, polygon, color), detail.hashCode());
+                var existing = currentMarkers.get(id);
+
+                if (existing != null && publishedHashes.getLong(id) == hash) {
+                    nextMarkers.put(id, existing);
+                    continue;
+                }
+
+                var points = polygon.outer();
+                var marker = BlueMapRenderer.createMarkerBuilder(name, color)
+                        .detail(detail)
+                        .shape(new Shape(points), 0)
+                        .position(points.get(0).toVector3());
+
+                if (!polygon.holes().isEmpty()) {
+                    marker.holes(BlueMapRenderer.toShapes(polygon.holes()));
+                }
+
+                nextMarkers.put(id, marker.build());
+                publishedHashes.put(id, hash);
+                putCount++;
+            }
+        }
+
+        int removedCount = 0;
+
+        for (var id : currentMarkers.keySet()) {
+            if (!nextMarkers.containsKey(id)) {
+                removedCount++;
+            }
+        }
+
+        publishedHashes.keySet().retainAll(nextMarkers.keySet());
+        this.lastPolygonMap.put(worldUid, nextPolygons);
+
+        // the set is replaced as a whole, like the outline markers, and only when a marker changed
+        if (putCount != 0 || removedCount != 0) {
+            this.markerSetProvider.publish(worldUid, nextMarkers);
+        }
+
+        this.metrics.recordHeatmapMarkers(putCount, removedCount);
+    }
+
+    void clear() {
+        this.markerSetProvider.clear();
+        this.publishedHashMap.clear();
+        this.lastPolygonMap.clear();
+        this.deferredMap.clear();
+    }
+
+    private static @NotNull RegionLoad sample(@NotNull TickRegions.TickRegionData data, long now) {
+        var report = data.getRegionSchedulingHandle().getTickReport15s(now);
+        var stats = data.getRegionStats();
+
+        double millisPerTick = report != null ? report.timePerTickData().segmentAll().average() / 1.0E6 : 0;
+        double utilisation = report != null ? report.utilisation() : 0;
+
+        return new RegionLoad(millisPerTick, utilisation, stats.getEntityCount(), stats.getChunkCount(), stats.getPlayerCount());
+    }
+
+    private record RegionLoad(double millisPerTick, double utilisation, int entities, int chunks, int players) {
+    }
+
+    /**
+     * The last samples of a region, oldest first overwritten.
+     */
+    private static final class LoadWindow {
+
+        private final double[] millisPerTick;
+        private final double[] utilisation;
+        private int count;
+        private int next;
+        private long sampledAt;
+        private int entities;
+        private int chunks;
+        private int players;
+
+        private LoadWindow(int size) {
+            this.millisPerTick = new double[size];
+            this.utilisation = new double[size];
+        }
+
+        private boolean isDue(long now) {
+            return this.count == 0 || SAMPLE_INTERVAL_NANOS <= now - this.sampledAt;
+        }
+
+        private void add(@NotNull RegionLoad load, long now) {
+            this.sampledAt = now;
+            this.millisPerTick[this.next] = load.millisPerTick();
+            this.utilisation[this.next] = load.utilisation();
+            this.next = (this.next + 1) % this.millisPerTick.length;
+            this.count = Math.min(this.count + 1, this.millisPerTick.length);
+
+            // counts are shown as they are now
+            this.entities = load.entities();
+            this.chunks = load.chunks();
+            this.players = load.players();
+        }
+
+        private double meanMillisPerTick() {
+            return mean(this.millisPerTick);
+        }
+
+        private double meanUtilisation() {
+            return mean(this.utilisation);
+        }
+
+        private double mean(double[] samples) {
+            double sum = 0;
+
+            for (int i = 0; i < this.count; i++) {
+                sum += samples[i];
+            }
+
+            return this.count != 0 ? sum / this.count : 0;
+        }
+    }
+}
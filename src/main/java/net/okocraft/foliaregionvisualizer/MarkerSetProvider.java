@@ -1,109 +1,208 @@
 package net.okocraft.foliaregionvisualizer;
 
 import de.bluecolored.bluemap.api.BlueMapAPI;
+import de.bluecolored.bluemap.api.BlueMapMap;
+import de.bluecolored.bluemap.api.markers.Marker;
 import de.bluecolored.bluemap.api.markers.MarkerSet;
-import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.locks.StampedLock;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates the marker set of each world and keeps it in the BlueMap maps of the world.
+ * <p>
+ * Each world is registered once, by the first thread that asks for it; other threads asking for the same world wait
+ * for that registration, threads asking for other worlds are not blocked. A registration is dropped and done again
+ * when the maps of its world were added or removed since.
+ */
 public class MarkerSetProvider {
 
-    private static final MarkerSet DISABLED = MarkerSet.builder().label("FoliaRegionVisualizer-DISABLED").build();
-
     private final BlueMapAPI api;
     private final String name;
     private final boolean defaultHidden;
     private final Set<String> disabledMapNames;
+    private final Metrics metrics;
+    private final String idPrefix;
 
-    private final Object2ObjectMap<UUID, MarkerSet> markerSetMap = new Object2ObjectOpenHashMap<>();
-    private final StampedLock lock = new StampedLock();
+    private final Map<UUID, CompletableFuture<Registration>> registry = new ConcurrentHashMap<>();
 
-    public MarkerSetProvider(@NotNull BlueMapAPI api, @NotNull String name, boolean defaultHidden, @NotNull Set<String> disabledMapNames) {
+    public MarkerSetProvider(@NotNull BlueMapAPI api, @NotNull String name, boolean defaultHidden, @NotNull Set<String> disabledMapNames,
+                             @NotNull Metrics metrics) {
+        this(api, "FoliaRegionVisualizer-", name, defaultHidden, disabledMapNames, metrics);
+    }
+
+    public MarkerSetProvider(@NotNull BlueMapAPI api, @NotNull String idPrefix, @NotNull String name, boolean defaultHidden,
+                             @NotNull Set<String> disabledMapNames, @NotNull Metrics metrics) {
         this.api = api;
+        this.idPrefix = idPrefix;
         this.name = name;
         this.defaultHidden = defaultHidden;
         this.disabledMapNames = disabledMapNames;
+        this.metrics = metrics;
     }
 
     public @Nullable MarkerSet getOrCreate(@NotNull UUID worldUid) {
-        MarkerSet existing;
+        var world = this.api.getWorld(worldUid);
 
-        {
-            long stamp = this.lock.tryOptimisticRead();
-            existing = this.markerSetMap.get(worldUid);
+        if (world.isEmpty()) {
+            return null;
+        }
 
-            if (!this.lock.validate(stamp)) {
-                long readStamp = this.lock.readLock();
-                try {
-                    existing = this.markerSetMap.get(worldUid);
-                } finally {
-                    this.lock.unlockRead(readStamp);
-                }
-            }
+        var maps = world.get().getMaps();
+        var registration = register(worldUid, maps);
+
+        if (!registration.hasSameMaps(maps)) {
+            // a map was added or removed, so the marker set is put into the current maps again
+            invalidate(worldUid, registration);
+            registration = register(worldUid, maps);
         }
 
-        if (existing != null) {
-            return existing != DISABLED ? existing : null;
+        return registration.markerSet;
+    }
+
+    /**
+     * Replaces the marker set of the world with a new one holding the given markers.
+     * <p>
+     * The new set is filled before it is put into the maps, so readers see either the old or the new markers, never
+     * a mix of them, and the set that BlueMap's web server reads is never changed. The unchanged markers are passed in
+     * as the instances of the old set, so filling the new set only copies references. Callers only publish when a
+     * marker was put or removed.
+     */
+    public void publish(@NotNull UUID worldUid, @NotNull Map<String, Marker> markers) {
+        var future = this.registry.get(worldUid);
+        var registration = future != null ? future.getNow(null) : null;
+
+        if (registration == null || registration.markerSet == null) {
+            return; // not registered, or cleared in the meantime
         }
 
         var world = this.api.getWorld(worldUid);
 
         if (world.isEmpty()) {
-            return null;
+            return;
         }
 
-        long writeStamp = this.lock.writeLock();
+        var markerSet = create();
+        markerSet.getMarkers().putAll(markers);
 
-        try {
-            MarkerSet markerSet = null;
-            var id = "FoliaRegionVisualizer-" + worldUid;
+        // updates of one world never run at the same time, so only clear() and invalidate() race with this
+        var id = this.idPrefix + worldUid;
 
-            for (var map : world.get().getMaps()) {
-                if (this.disabledMapNames.contains(map.getId())) {
-                    continue;
-                }
+        for (var map : world.get().getMaps()) {
+            if (!this.disabledMapNames.contains(map.getId())) {
+                map.getMarkerSets().put(id, markerSet);
+            }
+        }
+
+        registration.markerSet = markerSet;
+
+        if (this.registry.get(worldUid) != future) {
+            removeFromMaps(worldUid, markerSet);
+        }
+    }
+
+    /**
+     * Removes the marker set of the world from its maps. It is created again the next time it is asked for.
+     */
+    public void invalidate(@NotNull UUID worldUid) {
+        var future = this.registry.get(worldUid);
+
+        if (future != null) {
+            // waits for a registration that is still running, so it is not left in the maps
+            invalidate(worldUid, future.handle((registration, error) -> registration).join());
+        }
+    }
 
-                if (markerSet == null) {
-                    markerSet = create();
+    public void clear() {
+        for (var worldUid : Set.copyOf(this.registry.keySet())) {
+            invalidate(worldUid);
+        }
+    }
+
+    private @NotNull Registration register(@NotNull UUID worldUid, @NotNull Collection<BlueMapMap> maps) {
+        var future = this.registry.get(worldUid);
+
+        if (future == null) {
+            var created = new CompletableFuture<Registration>();
+            future = this.registry.putIfAbsent(worldUid, created);
+
+            if (future == null) {
+                // this thread won, and registers the world without holding any lock
+                try {
+                    created.complete(createRegistration(worldUid, maps));
+                } catch (RuntimeException e) {
+                    this.registry.remove(worldUid, created);
+                    created.completeExceptionally(e);
+                    throw e;
                 }
 
-                map.getMarkerSets().put(id, markerSet);
+                return created.join();
             }
+        }
+
+        if (!future.isDone()) {
+            this.metrics.recordLockRetry();
+        }
+
+        return future.join();
+    }
+
+    private void invalidate(@NotNull UUID worldUid, @Nullable Registration registration) {
+        if (registration == null) {
+            return;
+        }
+
+        var future = this.registry.get(worldUid);
+
+        if (future != null && future.getNow(null) == registration && this.registry.remove(worldUid, future)) {
+            var markerSet = registration.markerSet;
+            registration.markerSet = null;
 
             if (markerSet != null) {
-                this.markerSetMap.put(worldUid, markerSet);
-            } else {
-                this.markerSetMap.put(worldUid, DISABLED);
+                removeFromMaps(worldUid, markerSet);
             }
-
-            return markerSet;
-        } finally {
-            this.lock.unlockWrite(writeStamp);
         }
     }
 
-    public void clear() {
-        long writeLock = this.lock.writeLock();
+    private @NotNull Registration createRegistration(@NotNull UUID worldUid, @NotNull Collection<BlueMapMap> maps) {
+        MarkerSet markerSet = null;
+        var id = this.idPrefix + worldUid;
+        Set<String> mapIds = new HashSet<>();
 
-        try {
-            for (var entry : markerSetMap.entrySet()) {
-                var world = this.api.getWorld(entry.getKey());
+        for (var map : maps) {
+            mapIds.add(map.getId());
 
-                if (world.isEmpty()) {
-                    continue;
-                }
+            if (this.disabledMapNames.contains(map.getId())) {
+                continue;
+            }
 
-                var id = "FoliaRegionVisualizer-" + entry.getKey();
-                world.get().getMaps().forEach(map -> map.getMarkerSets().remove(id, entry.getValue()));
+            if (markerSet == null) {
+                markerSet = create();
             }
-        } finally {
-            this.lock.unlockWrite(writeLock);
+
+            map.getMarkerSets().put(id, markerSet);
+        }
+
+        // a registration without a marker set marks a world whose maps are all disabled
+        return new Registration(Set.copyOf(mapIds), markerSet);
+    }
+
+    private void removeFromMaps(@NotNull UUID worldUid, @NotNull MarkerSet markerSet) {
+        var world = this.api.getWorld(worldUid);
+
+        if (world.isEmpty()) {
+            return;
         }
+
+        var id = this.idPrefix + worldUid;
+        world.get().getMaps().forEach(map -> map.getMarkerSets().remove(id, markerSet));
     }
 
     private @NotNull MarkerSet create() {
@@ -112,4 +211,29 @@ public class MarkerSetProvider {
                 .defaultHidden(this.defaultHidden)
                 .build();
     }
+
+    private static final class Registration {
+
+        private final Set<String> mapIds;
+        private volatile @Nullable MarkerSet markerSet;
+
+        private Registration(@NotNull Set<String> mapIds, @Nullable MarkerSet markerSet) {
+            this.mapIds = mapIds;
+            this.markerSet = markerSet;
+        }
+
+        private boolean hasSameMaps(@NotNull Collection<BlueMapMap> maps) {
+            if (maps.size() != this.mapIds.size()) {
+                return false;
+            }
+
+            for (var map : maps) {
+                if (!this.mapIds.contains(map.getId())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
 }
@@ -0,0 +1,140 @@
+package net.okocraft.foliaregionvisualizer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches merged polygons by the fingerprint of their sections.
+ * <p>
+ * Entries are evicted when there are more than {@code maxEntries} of them (least recently used first), or when
+ * they have not been used for {@code maxAge}. Each entry keeps a copy of its sections, and a hit is only returned
+ * when they are equal to the requested ones, so two footprints with the same fingerprint are merged separately
+ * instead of sharing polygons. The copy costs a tile of 64 words per 64x64 area the sections touch, and the comparison
+ * a pass over those words, which is still far less than a merge.
+ */
+final class MergeCache {
+
+    private final int maxEntries;
+    private final long maxAgeNanos;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    MergeCache(int maxEntries, long maxAge, @NotNull TimeUnit unit) {
+        this.maxEntries = maxEntries;
+        this.maxAgeNanos = unit.toNanos(maxAge);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= MergeCache.this.maxEntries) {
+                    return false;
+                }
+
+                MergeCache.this.evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the polygons of the sections simplified with the tolerance, merging them only when they are not cached.
+     * The returned list is shared and must not be modified.
+     */
+    @NotNull List<Polygon> merge(@NotNull SectionBitmap sections, int tolerance) {
+        if (this.maxEntries <= 0) {
+            return FoliaRegionScanline.mergePolygons(sections, tolerance);
+        }
+
+        var key = new Key(sections.fingerprint(), sections.size(), tolerance);
+        long now = System.nanoTime();
+
+        Entry cached;
+
+        synchronized (this.entries) {
+            cached = this.entries.get(key);
+
+            if (cached != null) {
+                cached.lastUsed = now;
+            }
+        }
+
+        // the sections of an entry are never modified, so they are compared outside the lock
+        if (cached != null && cached.sections.equals(sections)) {
+            this.hits.increment();
+            return cached.polygons;
+        }
+
+        // merged outside the lock, so other regions are not blocked
+        this.misses.increment();
+        var polygons = FoliaRegionScanline.mergePolygons(sections, tolerance);
+
+        var entry = new Entry(sections.copy(), polygons, now);
+
+        synchronized (this.entries) {
+            // replaces the entry of other sections with the same key, if any
+            this.entries.put(key, entry);
+            evictExpired(now);
+        }
+
+        return polygons;
+    }
+
+    long hits() {
+        return this.hits.sum();
+    }
+
+    long misses() {
+        return this.misses.sum();
+    }
+
+    long evictions() {
+        return this.evictions.sum();
+    }
+
+    int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    private void evictExpired(long now) {
+        // in access order, so the least recently used entries come first
+        for (var iterator = this.entries.values().iterator(); iterator.hasNext(); ) {
+            if (now - iterator.next().lastUsed <= this.maxAgeNanos) {
+                break;
+            }
+
+            iterator.remove();
+            this.evictions.increment();
+        }
+    }
+
+    private record Key(long fingerprint, int sectionCount, int tolerance) {
+    }
+
+    private static final class Entry {
+
+        private final SectionBitmap sections;
+        private final List<Polygon> polygons;
+        private long lastUsed;
+
+        private Entry(@NotNull SectionBitmap sections, @NotNull List<Polygon> polygons, long lastUsed) {
+            this.sections = sections;
+            this.polygons = polygons;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The working buffers of {@link FoliaRegionScanline}, kept between merges so that merging only allocates its result.
+ * <p>
+ * A context belongs to one thread at a time; {@link #get()} returns the one of the current thread. Buffers grow to
+ * the largest region merged, and every {@link #SHRINK_INTERVAL} merges a buffer that was more than
+ * {@link #SHRINK_FACTOR} times larger than needed in all of them is dropped, so one huge region does not pin its
+ * buffers forever.
+ */
+final class MergeContext {
+
+    static final int START_X = 0;
+    static final int START_Z = 1;
+    static final int END_X = 2;
+    static final int END_Z = 3;
+    static final int NEXT = 4;
+    static final int LOOP_OF = 5;
+    static final int HORIZONTAL = 6;
+    static final int ANCHOR = 7;
+    static final int TARGET = 8;
+    static final int TOP_LEVEL = 9;
+    static final int CHILD_START = 10;
+    static final int CHILDREN = 11;
+    static final int FILLED = 12;
+    static final int PINCH = 13;
+    static final int POINT_X = 14;
+    static final int POINT_Z = 15;
+    static final int RUN_X1 = 16;
+    static final int RUN_X2 = 17;
+    static final int POLYGON_OF = 18;
+    private static final int BUFFER_COUNT = 19;
+
+    static final int SHRINK_INTERVAL = 64;
+    static final int SHRINK_FACTOR = 4;
+
+    private static final int MIN_LENGTH = 16;
+    private static final ThreadLocal<MergeContext> CONTEXTS = ThreadLocal.withInitial(MergeContext::new);
+
+    private final int[][] buffers = new int[BUFFER_COUNT][];
+    private final int[] peaks = new int[BUFFER_COUNT];
+    private final Long2IntOpenHashMap edgeByStart = new Long2IntOpenHashMap();
+    private final Int2IntOpenHashMap edgeAbove = new Int2IntOpenHashMap();
+    private int peakEdges;
+    private int merges;
+    private boolean inUse;
+
+    MergeContext() {
+        this.edgeByStart.defaultReturnValue(-1);
+        this.edgeAbove.defaultReturnValue(-1);
+    }
+
+    /**
+     * Returns the context of the current thread, or a new one if it is already in use further up the stack.
+     */
+    static @NotNull MergeContext get() {
+        var context = CONTEXTS.get();
+        return context.inUse ? new MergeContext() : context;
+    }
+
+    void begin() {
+        if (this.inUse) {
+            throw new IllegalStateException("The context is already in use");
+        }
+
+        this.inUse = true;
+    }
+
+    void end() {
+        this.inUse = false;
+
+        if (++this.merges % SHRINK_INTERVAL != 0) {
+            return;
+        }
+
+        for (int id = 0; id < BUFFER_COUNT; id++) {
+            var buffer = this.buffers[id];
+
+            if (buffer != null && (long) Math.max(MIN_LENGTH, this.peaks[id]) * SHRINK_FACTOR < buffer.length) {
+                this.buffers[id] = null;
+            }
+
+            this.peaks[id] = 0;
+        }
+
+        this.edgeByStart.trim(this.peakEdges);
+        this.edgeAbove.trim(this.peakEdges);
+        this.peakEdges = 0;
+    }
+
+    /**
+     * Returns the buffer with at least the given length. Its contents are whatever the last merge left in it.
+     */
+    int @NotNull [] buffer(int id, int minLength) {
+        var buffer = this.buffers[id];
+
+        if (buffer == null || buffer.length < minLength) {
+            buffer = new int[Math.max(MIN_LENGTH, buffer != null ? Math.max(minLength, buffer.length + (buffer.length >> 1)) : minLength)];
+            this.buffers[id] = buffer;
+        }
+
+        this.peaks[id] = Math.max(this.peaks[id], minLength);
+        return buffer;
+    }
+
+    /**
+     * Keeps a buffer that was grown while merging, of which {@code used} elements were needed.
+     */
+    void keep(int id, int @NotNull [] buffer, int used) {
+        this.buffers[id] = buffer;
+        this.peaks[id] = Math.max(this.peaks[id], used);
+    }
+
+    /**
+     * Returns the map from the start of each edge to the edge, cleared.
+     */
+    @NotNull Long2IntOpenHashMap edgeByStart(int edgeCount) {
+        this.peakEdges = Math.max(this.peakEdges, edgeCount);
+        this.edgeByStart.clear();
+        return this.edgeByStart;
+    }
+
+    /**
+     * Returns the map from each column to the last edge above it, cleared.
+     */
+    @NotNull Int2IntOpenHashMap edgeAbove() {
+        this.edgeAbove.clear();
+        return this.edgeAbove;
+    }
+}
@@ -0,0 +1,282 @@
+package net.okocraft.foliaregionvisualizer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the update pipeline.
+ * <p>
+ * Recording only touches {@link LongAdder}s and atomic arrays, so it costs a few nanoseconds and never blocks.
+ * Everything is summarized when it is read.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    enum Stage {
+        SNAPSHOT, VISIT, MERGE, BUILD, PUBLISH, UPDATE;
+
+        private final String displayName = name().toLowerCase(Locale.ROOT);
+    }
+
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder regions = new LongAdder();
+    private final LongAdder sections = new LongAdder();
+    private final LongAdder points = new LongAdder();
+    private final LongAdder markersPut = new LongAdder();
+    private final LongAdder markersRemoved = new LongAdder();
+    private final LongAdder heatmapMarkersPut = new LongAdder();
+    private final LongAdder heatmapMarkersRemoved = new LongAdder();
+    private final LongAdder lockRetries = new LongAdder();
+    private final LongAdder failedUpdates = new LongAdder();
+    private final Map<UUID, WorldStats> worldStatsMap = new ConcurrentHashMap<>();
+
+    private volatile MergeCache mergeCache;
+
+    Metrics() {
+        for (int i = 0; i < this.histograms.length; i++) {
+            this.histograms[i] = new Histogram();
+        }
+    }
+
+    void recordStage(@NotNull Stage stage, long nanos) {
+        this.histograms[stage.ordinal()].record(nanos);
+    }
+
+    void recordRegion(int sectionCount, int pointCount) {
+        this.regions.increment();
+        this.sections.add(sectionCount);
+        this.points.add(pointCount);
+    }
+
+    void recordMarkers(int put, int removed) {
+        this.markersPut.add(put);
+        this.markersRemoved.add(removed);
+    }
+
+    void recordHeatmapMarkers(int put, int removed) {
+        this.heatmapMarkersPut.add(put);
+        this.heatmapMarkersRemoved.add(removed);
+    }
+
+    void recordLockRetry() {
+        this.lockRetries.increment();
+    }
+
+    void recordFailedUpdate() {
+        this.failedUpdates.increment();
+    }
+
+    void recordUpdate(@NotNull UUID worldUid, @NotNull String worldName, long nanos, int regionCount, int sectionCount, int pointCount) {
+        this.updates.increment();
+        recordStage(Stage.UPDATE, nanos);
+        this.worldStatsMap.put(worldUid, new WorldStats(worldName, nanos, regionCount, sectionCount, pointCount));
+    }
+
+    void setMergeCache(@NotNull MergeCache mergeCache) {
+        this.mergeCache = mergeCache;
+    }
+
+    @NotNull Map<UUID, WorldStats> getWorldStats() {
+        return Map.copyOf(this.worldStatsMap);
+    }
+
+    @NotNull Histogram getHistogram(@NotNull Stage stage) {
+        return this.histograms[stage.ordinal()];
+    }
+
+    @Override
+    public long getUpdates() {
+        return this.updates.sum();
+    }
+
+    @Override
+    public long getRegions() {
+        return this.regions.sum();
+    }
+
+    @Override
+    public long getSections() {
+        return this.sections.sum();
+    }
+
+    @Override
+    public long getPoints() {
+        return this.points.sum();
+    }
+
+    @Override
+    public long getMarkersPut() {
+        return this.markersPut.sum();
+    }
+
+    @Override
+    public long getMarkersRemoved() {
+        return this.markersRemoved.sum();
+    }
+
+    @Override
+    public long getHeatmapMarkersPut() {
+        return this.heatmapMarkersPut.sum();
+    }
+
+    @Override
+    public long getHeatmapMarkersRemoved() {
+        return this.heatmapMarkersRemoved.sum();
+    }
+
+    @Override
+    public long getLockRetries() {
+        return this.lockRetries.sum();
+    }
+
+    @Override
+    public long getFailedUpdates() {
+        return this.failedUpdates.sum();
+    }
+
+    @Override
+    public long getMergeCacheHits() {
+        var cache = this.mergeCache;
+        return cache != null ? cache.hits() : 0;
+    }
+
+    @Override
+    public long getMergeCacheMisses() {
+        var cache = this.mergeCache;
+        return cache != null ? cache.misses() : 0;
+    }
+
+    @Override
+    public @NotNull Map<String, Double> getStageMeanMillis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+
+        for (var stage : Stage.values()) {
+            result.put(stage.displayName, getHistogram(stage).meanMillis());
+        }
+
+        return result;
+    }
+
+    @Override
+    public @NotNull Map<String, Double> getStageP99Millis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+
+        for (var stage : Stage.values()) {
+            result.put(stage.displayName, getHistogram(stage).percentileMillis(0.99));
+        }
+
+        return result;
+    }
+
+    @Override
+    public @NotNull Map<String, Double> getStageMaxMillis() {
+        Map<String, Double> result = new LinkedHashMap<>();
+
+        for (var stage : Stage.values()) {
+            result.put(stage.displayName, getHistogram(stage).maxMillis());
+        }
+
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (var histogram : this.histograms) {
+            histogram.reset();
+        }
+
+        this.updates.reset();
+        this.regions.reset();
+        this.sections.reset();
+        this.points.reset();
+        this.markersPut.reset();
+        this.markersRemoved.reset();
+        this.heatmapMarkersPut.reset();
+        this.heatmapMarkersRemoved.reset();
+        this.lockRetries.reset();
+        this.failedUpdates.reset();
+    }
+
+    record WorldStats(@NotNull String worldName, long lastUpdateNanos, int regions, int sections, int points) {
+    }
+
+    /**
+     * A latency histogram with one bucket per power of two nanoseconds.
+     */
+    static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            this.buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos) & 63);
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulate(nanos);
+        }
+
+        void reset() {
+            for (int bucket = 0; bucket < 64; bucket++) {
+                this.buckets.set(bucket, 0);
+            }
+
+            this.count.reset();
+            this.totalNanos.reset();
+            this.maxNanos.reset();
+        }
+
+        long count() {
+            return this.count.sum();
+        }
+
+        double meanMillis() {
+            long count = this.count.sum();
+            return count != 0 ? toMillis(this.totalNanos.sum() / count) : 0;
+        }
+
+        double maxMillis() {
+            return toMillis(this.maxNanos.get());
+        }
+
+        /**
+         * Returns the upper bound of the bucket that holds the percentile.
+         */
+        double percentileMillis(double percentile) {
+            long count = this.count.sum();
+
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile);
+            long seen = 0;
+
+            for (int bucket = 0; bucket < 64; bucket++) {
+                seen += this.buckets.get(bucket);
+
+                if (rank <= seen) {
+                    return toMillis(Math.min(bucket == 0 ? 0 : (1L << bucket) - 1, this.maxNanos.get()));
+                }
+            }
+
+            return maxMillis();
+        }
+
+        private static double toMillis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.okocraft.foliaregionvisualizer;
+
+import java.util.Map;
+
+/**
+ * The metrics of the update pipeline, registered as {@code net.okocraft.foliaregionvisualizer:type=Metrics}.
+ */
+public interface MetricsMXBean {
+
+    long getUpdates();
+
+    long getRegions();
+
+    long getSections();
+
+    long getPoints();
+
+    long getMarkersPut();
+
+    long getMarkersRemoved();
+
+    /**
+     * Returns how many markers of the load heatmap were put. They are not counted by {@link #getMarkersPut()}.
+     */
+    long getHeatmapMarkersPut();
+
+    /**
+     * Returns how many markers of the load heatmap were removed. They are not counted by {@link #getMarkersRemoved()}.
+     */
+    long getHeatmapMarkersRemoved();
+
+    /**
+     * Returns how often getting a marker set had to wait for another thread that was creating it.
+     */
+    long getLockRetries();
+
+    /**
+     * Returns how many updates threw an exception. They are not counted by {@link #getUpdates()}.
+     */
+    long getFailedUpdates();
+
+    long getMergeCacheHits();
+
+    long getMergeCacheMisses();
+
+    Map<String, Double> getStageMeanMillis();
+
+    Map<String, Double> getStageP99Millis();
+
+    Map<String, Double> getStageMaxMillis();
+
+    void reset();
+}
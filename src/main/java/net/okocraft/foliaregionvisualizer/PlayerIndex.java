@@ -0,0 +1,87 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The sections of the players in a world.
+ * <p>
+ * Every player owns a slot that is written by the player's own region thread. The section and whether the player is
+ * visible are packed into one long, so a slot is always read whole, without locks and without touching the player.
+ * Slots are only acquired and released when players join, leave or change worlds.
+ */
+final class PlayerIndex {
+
+    private static final long OCCUPIED = 1L << 63;
+    private static final long VISIBLE = 1L << 62;
+    private static final long COORDINATE_MASK = 0x7FFFFFFFL;
+
+    private volatile AtomicLongArray states = new AtomicLongArray(16);
+    private volatile int limit;
+
+    // guarded by this
+    private final IntArrayList freeSlots = new IntArrayList();
+
+    synchronized int acquire() {
+        if (!this.freeSlots.isEmpty()) {
+            return this.freeSlots.popInt();
+        }
+
+        int slot = this.limit;
+
+        if (slot == this.states.length()) {
+            // a write to the old array while copying is lost, and repeated by the next update of that player
+            var grown = new AtomicLongArray(slot * 2);
+
+            for (int i = 0; i < slot; i++) {
+                grown.set(i, this.states.get(i));
+            }
+
+            this.states = grown;
+        }
+
+        this.limit = slot + 1;
+        return slot;
+    }
+
+    synchronized void release(int slot) {
+        this.states.set(slot, 0);
+        this.freeSlots.add(slot);
+    }
+
+    void set(int slot, int sectionX, int sectionZ, boolean visible) {
+        this.states.set(slot, OCCUPIED | (visible ? VISIBLE : 0) | (sectionZ & COORDINATE_MASK) << 31 | sectionX & COORDINATE_MASK);
+    }
+
+    /**
+     * Returns the number of slots that may be occupied.
+     */
+    int limit() {
+        return this.limit;
+    }
+
+    /**
+     * Returns the state of the slot, to be read with {@link #isVisible(long)}, {@link #getSectionX(long)} and
+     * {@link #getSectionZ(long)}.
+     */
+    long getState(int slot) {
+        var states = this.states;
+        return slot < states.length() ? states.get(slot) : 0;
+    }
+
+    /**
+     * Whether the slot is occupied by a player that is shown on the map.
+     */
+    static boolean isVisible(long state) {
+        return (state & (OCCUPIED | VISIBLE)) == (OCCUPIED | VISIBLE);
+    }
+
+    static int getSectionX(long state) {
+        return (int) (state << 33 >> 33);
+    }
+
+    static int getSectionZ(long state) {
+        return (int) (state << 2 >> 33);
+    }
+}
@@ -0,0 +1,142 @@
+package net.okocraft.foliaregionvisualizer;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.metadata.MetadataValue;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.potion.PotionEffectType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a {@link PlayerIndex} for each world up to date.
+ * <p>
+ * Each player is checked by a task on its own entity scheduler, so its location, potion effects and metadata are only
+ * read on the thread that owns the player. The task is retired by Folia when the player leaves, which releases its
+ * slot.
+ */
+final class PlayerTracker implements Listener {
+
+    private final Plugin plugin;
+    private final long periodTicks;
+    private final Map<UUID, PlayerIndex> indexMap = new ConcurrentHashMap<>();
+    private final Map<UUID, ScheduledTask> taskMap = new ConcurrentHashMap<>();
+
+    PlayerTracker(@NotNull Plugin plugin, long periodTicks) {
+        this.plugin = plugin;
+        this.periodTicks = Math.max(1, periodTicks);
+    }
+
+    void start() {
+        for (var player : this.plugin.getServer().getOnlinePlayers()) {
+            track(player);
+        }
+    }
+
+    void stop() {
+        this.taskMap.values().forEach(ScheduledTask::cancel);
+        this.taskMap.clear();
+        this.indexMap.clear();
+    }
+
+    /**
+     * Returns the index of the world, or {@code null} if no player has been in it yet.
+     */
+    @Nullable PlayerIndex getIndex(@NotNull UUID worldUid) {
+        return this.indexMap.get(worldUid);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(@NotNull PlayerJoinEvent event) {
+        track(event.getPlayer());
+    }
+
+    private void track(@NotNull Player player) {
+        var uid = player.getUniqueId();
+
+        if (this.taskMap.containsKey(uid)) {
+            return; // joined while the online players were being tracked
+        }
+
+        var tracked = new TrackedPlayer(player);
+        var task = player.getScheduler().runAtFixedRate(this.plugin, ignored -> tracked.update(), () -> {
+            tracked.release();
+            this.taskMap.remove(uid);
+        }, 1, this.periodTicks);
+
+        if (task != null) {
+            this.taskMap.put(uid, task);
+        }
+    }
+
+    private static boolean isHidden(@NotNull Player player) {
+        if (player.hasPotionEffect(PotionEffectType.INVISIBILITY) || player.getGameMode() == GameMode.SPECTATOR) {
+            return true;
+        }
+
+        for (MetadataValue meta : player.getMetadata("vanished")) {
+            if (meta.asBoolean()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The slot of a player, only touched by the player's task.
+     */
+    private final class TrackedPlayer {
+
+        private final Player player;
+        private final Location location = new Location(null, 0, 0, 0);
+        private @Nullable World world;
+        private @Nullable PlayerIndex index;
+        private int slot = -1;
+
+        private TrackedPlayer(@NotNull Player player) {
+            this.player = player;
+        }
+
+        private void update() {
+            // fills the same location every time instead of allocating a new one
+            this.player.getLocation(this.location);
+            var world = this.location.getWorld();
+
+            if (world == null) {
+                return;
+            }
+
+            if (world != this.world || this.index == null) {
+                release();
+                this.world = world;
+                this.index = PlayerTracker.this.indexMap.computeIfAbsent(world.getUID(), ignored -> new PlayerIndex());
+                this.slot = this.index.acquire();
+            }
+
+            this.index.set(this.slot, this.location.getBlockX() >> 8, this.location.getBlockZ() >> 8, !isHidden(this.player));
+        }
+
+        private void release() {
+            var index = this.index;
+
+            if (index != null) {
+                index.release(this.slot);
+                this.index = null;
+                this.world = null;
+                this.slot = -1;
+            }
+        }
+    }
+}
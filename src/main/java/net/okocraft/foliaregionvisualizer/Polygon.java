@@ -0,0 +1,24 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * An outer ring of sections and the holes inside it, with their points in blocks.
+ * <p>
+ * The rings are not bridged to each other, so each of them is a simple polygon.
+ */
+record Polygon(@NotNull List<Vector2d> outer, @NotNull List<List<Vector2d>> holes) {
+
+    int pointCount() {
+        int count = this.outer.size();
+
+        for (var hole : this.holes) {
+            count += hole.size();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,327 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The binary format of region history files.
+ * <p>
+ * A file starts with {@link #MAGIC} and {@link #VERSION}, followed by frames. Each frame is prefixed with its length
+ * as a varint and holds the regions of one world at one time:
+ * <pre>
+ * varlong  timestamp (epoch millis)
+ * long     world uid, most significant bits
+ * long     world uid, least significant bits
+ * varint   region count
+ * region   * region count
+ * </pre>
+ * A region is its id as a varlong and its sections as runs of consecutive sections in a row, sorted by z, then by x.
+ * Each run is the zigzag varint delta of its z to the previous run, the zigzag varint delta of its first x to the
+ * last x of the previous run, and its length minus one as a varint. A region that fills whole rows costs three
+ * bytes per row, no matter how wide it is.
+ */
+final class RegionLog {
+
+    static final int MAGIC = 0x46525652; // "FRVR"
+    static final byte VERSION = 1;
+
+    static final String FILE_PREFIX = "regions-";
+    static final String FILE_SUFFIX = ".frvr";
+
+    private RegionLog() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Encodes the regions of a world into one frame, without its length prefix.
+     */
+    static void encodeFrame(@NotNull Buffer buffer, long timestamp, @NotNull UUID worldUid, long @NotNull [] regionIds,
+                            long @NotNull [] @NotNull [] sectionKeys) {
+        buffer.writeVarLong(timestamp);
+        buffer.writeLong(worldUid.getMostSignificantBits());
+        buffer.writeLong(worldUid.getLeastSignificantBits());
+        buffer.writeVarInt(regionIds.length);
+
+        for (int i = 0; i < regionIds.length; i++) {
+            buffer.writeVarLong(regionIds[i]);
+            encodeSections(buffer, sectionKeys[i]);
+        }
+    }
+
+    /**
+     * Encodes section keys that are sorted by z, then by x.
+     */
+    static void encodeSections(@NotNull Buffer buffer, long @NotNull [] keys) {
+        int runCount = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || !isNext(keys[i - 1], keys[i])) {
+                runCount++;
+            }
+        }
+
+        buffer.writeVarInt(runCount);
+
+        int previousZ = 0;
+        int previousX = 0;
+
+        for (int start = 0; start < keys.length; ) {
+            int end = start + 1;
+
+            while (end < keys.length && isNext(keys[end - 1], keys[end])) {
+                end++;
+            }
+
+            int z = SectionKeys.getZ(keys[start]);
+            int x = SectionKeys.getX(keys[start]);
+            int lastX = SectionKeys.getX(keys[end - 1]);
+
+            buffer.writeVarInt(zigzag(z - previousZ));
+            buffer.writeVarInt(zigzag(x - previousX));
+            buffer.writeVarInt(lastX - x);
+
+            previousZ = z;
+            previousX = lastX;
+            start = end;
+        }
+    }
+
+    /**
+     * Reads and checks the header of a file.
+     */
+    static void readHeader(@NotNull DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        byte version = in.readByte();
+
+        if (magic != MAGIC) {
+            throw new IOException("Not a region history file");
+        }
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported region history version: " + version);
+        }
+    }
+
+    /**
+     * Reads the next frame.
+     * <p>
+     * The frame is read as a whole by its length first, so a frame that was cut off when the server stopped ends the
+     * file instead of failing it.
+     *
+     * @return the frame, or {@code null} at the end of the file or at a frame that was cut off
+     */
+    static @Nullable Frame readFrame(@NotNull DataInputStream in) throws IOException {
+        int first = in.read();
+
+        if (first == -1) {
+            return null;
+        }
+
+        int length;
+
+        try {
+            length = readVarInt(in, first);
+        } catch (EOFException e) {
+            return null;
+        }
+
+        byte[] bytes = in.readNBytes(length);
+
+        if (bytes.length < length) {
+            return null;
+        }
+
+        return decodeFrame(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static @NotNull Frame decodeFrame(@NotNull DataInputStream in) throws IOException {
+        long timestamp = readVarLong(in);
+        var worldUid = new UUID(in.readLong(), in.readLong());
+        int regionCount = readVarInt(in, in.readUnsignedByte());
+        long[] regionIds = new long[regionCount];
+        long[][] sectionKeys = new long[regionCount][];
+
+        for (int i = 0; i < regionCount; i++) {
+            regionIds[i] = readVarLong(in);
+            sectionKeys[i] = decodeSections(in);
+        }
+
+        return new Frame(timestamp, worldUid, regionIds, sectionKeys);
+    }
+
+    private static long @NotNull [] decodeSections(@NotNull DataInputStream in) throws IOException {
+        int runCount = readVarInt(in, in.readUnsignedByte());
+        var keys = new LongArrayList(runCount);
+
+        int previousZ = 0;
+        int previousX = 0;
+
+        for (int i = 0; i < runCount; i++) {
+            int z = previousZ + unzigzag(readVarInt(in, in.readUnsignedByte()));
+            int x = previousX + unzigzag(readVarInt(in, in.readUnsignedByte()));
+            int lastX = x + readVarInt(in, in.readUnsignedByte());
+
+            for (int runX = x; runX <= lastX; runX++) {
+                keys.add(SectionKeys.getKey(runX, z));
+            }
+
+            previousZ = z;
+            previousX = lastX;
+        }
+
+        return keys.toLongArray();
+    }
+
+    /**
+     * Returns the history files in the directory, oldest first.
+     */
+    static @NotNull List<Path> listFiles(@NotNull Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+
+        try (var stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+
+        // the names hold the time they were created at, which has the same number of digits until the year 2286
+        files.sort(null);
+        return files;
+    }
+
+    private static int readVarInt(@NotNull DataInputStream in, int first) throws IOException {
+        int value = first & 0x7F;
+
+        for (int shift = 7, b = first; (b & 0x80) != 0; shift += 7) {
+            if (35 <= shift) {
+                throw new IOException("Malformed varint");
+            }
+
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+        }
+
+        return value;
+    }
+
+    private static long readVarLong(@NotNull DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed varlong");
+    }
+
+    private static boolean isNext(long key, long next) {
+        return SectionKeys.getZ(key) == SectionKeys.getZ(next) && SectionKeys.getX(key) + 1 == SectionKeys.getX(next);
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * The regions of one world at one time, with their section keys sorted by z, then by x.
+     */
+    record Frame(long timestamp, @NotNull UUID worldUid, long @NotNull [] regionIds, long @NotNull [] @NotNull [] sectionKeys) {
+    }
+
+    /**
+     * A growable byte array that frames are encoded into. Not thread-safe.
+     */
+    static final class Buffer {
+
+        private byte[] bytes;
+        private int size;
+
+        Buffer(int initialCapacity) {
+            this.bytes = new byte[Math.max(16, initialCapacity)];
+        }
+
+        byte @NotNull [] array() {
+            return this.bytes;
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+
+            for (int shift = 24; 0 <= shift; shift -= 8) {
+                this.bytes[this.size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeLong(long value) {
+            ensureCapacity(8);
+
+            for (int shift = 56; 0 <= shift; shift -= 8) {
+                this.bytes[this.size++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+
+            while ((value & ~0x7F) != 0) {
+                this.bytes[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+
+            while ((value & ~0x7FL) != 0) {
+                this.bytes[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (this.bytes.length < this.size + additional) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.size + additional));
+            }
+        }
+    }
+}
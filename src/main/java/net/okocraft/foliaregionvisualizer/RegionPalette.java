@@ -0,0 +1,38 @@
+package net.okocraft.foliaregionvisualizer;
+
+import de.bluecolored.bluemap.api.math.Color;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Colours of regions, spread around the hue circle of the spawn colour.
+ * <p>
+ * The colour of a region is picked by a hash of its id, so it stays the same between updates no matter in which
+ * order the regions are visited. The colours are computed once, so picking one does not allocate.
+ */
+final class RegionPalette {
+
+    private final Color spawnColor;
+    private final Color[] colors;
+
+    RegionPalette(@NotNull Color spawnColor, int size) {
+        this.spawnColor = spawnColor;
+        this.colors = new Color[size];
+
+        float[] hsbValues = java.awt.Color.RGBtoHSB(spawnColor.getRed(), spawnColor.getGreen(), spawnColor.getBlue(), null);
+
+        for (int i = 0; i < size; i++) {
+            // skip the hue of the spawn colour itself
+            float hue = (hsbValues[0] + (float) (i + 1) / (size + 1)) % 1.0f;
+            this.colors[i] = new Color(java.awt.Color.HSBtoRGB(hue, hsbValues[1], hsbValues[2]), spawnColor.getAlpha());
+        }
+    }
+
+    @NotNull Color getSpawnColor() {
+        return this.spawnColor;
+    }
+
+    @NotNull Color getColor(long regionId) {
+        long hash = regionId * 0x9E3779B97F4A7C15L;
+        return this.colors[(int) ((hash >>> 32) * this.colors.length >>> 32)];
+    }
+}
@@ -0,0 +1,196 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends the regions of every update to history files in the {@link RegionLog} format.
+ * <p>
+ * Snapshots are encoded and written by a single background thread, so recording never waits for the disk. When that
+ * thread falls behind, new snapshots are dropped instead of queued without bound. A snapshot is only written when
+ * the regions of its world changed since the last one in the same file, so every file starts with a snapshot of each
+ * world it records and can be replayed on its own after older files were deleted. A file is closed once it reaches
+ * {@code maxFileBytes}, and the oldest files are deleted so that at most {@code maxFiles} of them are kept.
+ */
+final class RegionRecorder {
+
+    private static final int QUEUE_SIZE = 64;
+
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final Logger logger;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder dropped = new LongAdder();
+
+    // only used by the writer thread
+    private final RegionLog.Buffer buffer = new RegionLog.Buffer(64 * 1024);
+    private final RegionLog.Buffer lengthBuffer = new RegionLog.Buffer(16);
+    private final Object2LongMap<UUID> lastHashes = new Object2LongOpenHashMap<>();
+    private @Nullable FileChannel channel;
+    private long fileBytes;
+
+    RegionRecorder(@NotNull Path directory, long maxFileBytes, int maxFiles, @NotNull Logger logger) {
+        this.directory = directory;
+        this.maxFileBytes = Math.max(1024, maxFileBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+        this.logger = logger;
+        this.executor = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
+                runnable -> {
+                    var thread = new Thread(runnable, "FoliaRegionVisualizer Recorder");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> this.dropped.increment()
+        );
+    }
+
+    /**
+     * Queues the regions of the world to be written. The snapshot must not be modified afterwards.
+     */
+    void record(@NotNull UUID worldUid, long timestamp, @NotNull RegionSnapshot snapshot) {
+        this.executor.execute(() -> write(worldUid, timestamp, snapshot));
+    }
+
+    /**
+     * Returns the number of snapshots that were dropped because the writer thread was behind.
+     */
+    long dropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Writes the queued snapshots and closes the current file.
+     */
+    void close() {
+        this.executor.shutdown();
+
+        try {
+            if (!this.executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        closeFile();
+    }
+
+    private void write(@NotNull UUID worldUid, long timestamp, @NotNull RegionSnapshot snapshot) {
+        int regionCount = snapshot.size();
+        long[] regionIds = new long[regionCount];
+        long[][] sectionKeys = new long[regionCount][];
+        long hash = regionCount;
+
+        for (int index = 0; index < regionCount; index++) {
+            regionIds[index] = snapshot.getRegionId(index);
+            sectionKeys[index] = snapshot.getSectionKeys(index);
+            hash = VisualizerService.mixHash(hash, regionIds[index]);
+
+            for (long sectionKey : sectionKeys[index]) {
+                hash = VisualizerService.mixHash(hash, sectionKey);
+            }
+        }
+
+        if (this.lastHashes.containsKey(worldUid) && this.lastHashes.getLong(worldUid) == hash) {
+            return; // nothing was merged, split or resized
+        }
+
+        this.buffer.clear();
+        RegionLog.encodeFrame(this.buffer, timestamp, worldUid, regionIds, sectionKeys);
+
+        this.lengthBuffer.clear();
+        this.lengthBuffer.writeVarInt(this.buffer.size());
+
+        try {
+            var channel = openFile();
+            writeFully(channel, ByteBuffer.wrap(this.lengthBuffer.array(), 0, this.lengthBuffer.size()));
+            writeFully(channel, ByteBuffer.wrap(this.buffer.array(), 0, this.buffer.size()));
+            this.fileBytes += this.lengthBuffer.size() + this.buffer.size();
+            this.lastHashes.put(worldUid, hash);
+
+            if (this.maxFileBytes <= this.fileBytes) {
+                closeFile();
+            }
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not write the region history", e);
+            closeFile();
+        }
+    }
+
+    private @NotNull FileChannel openFile() throws IOException {
+        var channel = this.channel;
+
+        if (channel != null) {
+            return channel;
+        }
+
+        Files.createDirectories(this.directory);
+        deleteOldFiles(this.maxFiles - 1);
+
+        var path = this.directory.resolve(RegionLog.FILE_PREFIX + System.currentTimeMillis() + RegionLog.FILE_SUFFIX);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        var header = new RegionLog.Buffer(5);
+        header.writeInt(RegionLog.MAGIC);
+        header.writeByte(RegionLog.VERSION);
+        writeFully(channel, ByteBuffer.wrap(header.array(), 0, header.size()));
+
+        this.channel = channel;
+        this.fileBytes = header.size();
+
+        return channel;
+    }
+
+    private void closeFile() {
+        var channel = this.channel;
+        this.channel = null;
+
+        // forget what was written, so the first snapshot of every world goes into the next file even if unchanged
+        this.lastHashes.clear();
+
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not close the region history", e);
+        }
+    }
+
+    private void deleteOldFiles(int keep) throws IOException {
+        List<Path> files = RegionLog.listFiles(this.directory);
+
+        for (int i = 0; i < files.size() - keep; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package net.okocraft.foliaregionvisualizer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * A backend that the merged outlines of every update are published to.
+ * <p>
+ * A world is snapshotted, visited and merged once per update by {@link VisualizerService}, and the same
+ * {@link RenderFrame} is handed to every renderer. The updates of one world never run at the same time, but different
+ * worlds are rendered by different threads at once.
+ */
+interface RegionRenderer {
+
+    /**
+     * Whether this renderer shows the world. A world that no renderer shows is not merged at all.
+     */
+    default boolean accepts(@NotNull UUID worldUid) {
+        return true;
+    }
+
+    /**
+     * Publishes the outlines of the world.
+     *
+     * @return the number of shapes the world has now, and how many of them were put or removed
+     */
+    @NotNull VisualizerService.UpdateResult render(@NotNull RenderFrame frame);
+
+    /**
+     * Removes everything this renderer has published.
+     */
+    void clear();
+}
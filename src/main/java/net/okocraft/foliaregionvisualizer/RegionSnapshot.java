@@ -0,0 +1,130 @@
+package net.okocraft.foliaregionvisualizer;
+
+import io.papermc.paper.threadedregions.ThreadedRegionizer;
+import io.papermc.paper.threadedregions.TickRegions;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy of the regions of a world and their sections.
+ * <p>
+ * The regionizer lock is held only while the section keys are copied, everything else works on the copy.
+ * Bitmaps are built lazily, so the bitmap of a region must only be asked for by one thread at a time.
+ */
+final class RegionSnapshot {
+
+    private static final VarHandle SECTION_BY_KEY;
+
+    static {
+        try {
+            var threadedRegionClass = ThreadedRegionizer.ThreadedRegion.class;
+            var sectionByKeyField = threadedRegionClass.getDeclaredField("sectionByKey");
+            SECTION_BY_KEY = MethodHandles.privateLookupIn(threadedRegionClass, MethodHandles.lookup()).unreflectVarHandle(sectionByKeyField);
+        } catch (IllegalAccessException | NoSuchFieldException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long[] regionIds;
+    private final long[][] sectionKeys;
+    private final Long2IntOpenHashMap regionIndexBySection;
+    private final SectionBitmap[] bitmaps;
+    private final TickRegions.TickRegionData[] data;
+
+    private RegionSnapshot(long @NotNull [] regionIds, long @NotNull [][] sectionKeys, @NotNull Long2IntOpenHashMap regionIndexBySection,
+                           TickRegions.TickRegionData @NotNull [] data) {
+        this.regionIds = regionIds;
+        this.sectionKeys = sectionKeys;
+        this.regionIndexBySection = regionIndexBySection;
+        this.bitmaps = new SectionBitmap[regionIds.length];
+        this.data = data;
+    }
+
+    static @NotNull RegionSnapshot capture(@NotNull ThreadedRegionizer<TickRegions.TickRegionData, ?> regionizer) {
+        var regionIds = new LongArrayList();
+        List<long[]> copies = new ArrayList<>();
+        List<TickRegions.TickRegionData> data = new ArrayList<>();
+
+        // computeForAllRegions holds the read lock, so no region is merged or split while its sections are copied
+        regionizer.computeForAllRegions(region -> {
+            regionIds.add(region.id);
+            copies.add(((Long2ReferenceOpenHashMap<?>) SECTION_BY_KEY.get(region)).keySet().toLongArray());
+            data.add(region.getData());
+        });
+
+        int total = 0;
+
+        for (var keys : copies) {
+            total += keys.length;
+        }
+
+        var sectionKeys = copies.toArray(long[][]::new);
+        var regionIndexBySection = new Long2IntOpenHashMap(total);
+        regionIndexBySection.defaultReturnValue(-1);
+
+        for (int index = 0; index < sectionKeys.length; index++) {
+            var keys = sectionKeys[index];
+            SectionKeys.sortRowMajor(keys, keys.length);
+
+            for (long sectionKey : keys) {
+                regionIndexBySection.put(sectionKey, index);
+            }
+        }
+
+        return new RegionSnapshot(regionIds.toLongArray(), sectionKeys, regionIndexBySection, data.toArray(TickRegions.TickRegionData[]::new));
+    }
+
+    int size() {
+        return this.regionIds.length;
+    }
+
+    long getRegionId(int index) {
+        return this.regionIds[index];
+    }
+
+    /**
+     * Returns the section keys of the region, sorted by z, then by x. The array must not be modified.
+     */
+    long @NotNull [] getSectionKeys(int index) {
+        return this.sectionKeys[index];
+    }
+
+    /**
+     * Returns the tick data of the region. Only its statistics may be read, the region is ticked by its own thread.
+     */
+    @NotNull TickRegions.TickRegionData getData(int index) {
+        return this.data[index];
+    }
+
+    /**
+     * Returns the sections of the region as a bitmap, built on first use. The bitmap must not be modified.
+     */
+    @NotNull SectionBitmap getSectionBitmap(int index) {
+        var bitmap = this.bitmaps[index];
+
+        if (bitmap == null) {
+            bitmap = SectionBitmap.of(this.sectionKeys[index]);
+            this.bitmaps[index] = bitmap;
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Returns the index of the region that owns the section, or {@code -1} if no region owns it.
+     */
+    int getRegionIndex(long sectionKey) {
+        return this.regionIndexBySection.get(sectionKey);
+    }
+
+    int getRegionIndexAt(int blockX, int blockZ) {
+        return getRegionIndex(SectionKeys.getKey(blockX >> 8, blockZ >> 8));
+    }
+}
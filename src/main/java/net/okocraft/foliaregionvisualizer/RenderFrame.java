@@ -0,0 +1,23 @@
+package net.okocraft.foliaregionvisualizer;
+
+import de.bluecolored.bluemap.api.math.Color;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The merged outlines of one update of a world, shared by every {@link RegionRenderer}.
+ * <p>
+ * Regions that were not merged in time are included with their outlines from the last update, so renderers do not
+ * have to keep them themselves.
+ */
+record RenderFrame(@NotNull UUID worldUid, @NotNull String worldName, @NotNull List<VisualizerService.DetailLevel> levels,
+                   @NotNull List<Region> regions) {
+
+    /**
+     * The outlines of a region, one list of polygons per level of detail.
+     */
+    record Region(long regionId, @NotNull Color color, int sectionCount, @NotNull List<List<Polygon>> levels) {
+    }
+}
@@ -0,0 +1,306 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * A set of sections stored as 64x64 tiles, one {@code long} word per row of a tile.
+ * <p>
+ * Tiles are keyed like sections ({@link SectionKeys}) by the section coordinates shifted by {@link #TILE_SHIFT}, and
+ * bit {@code x & 63} of word {@code z & 63} is set when the section is in the set. Empty tiles are not kept.
+ */
+final class SectionBitmap {
+
+    static final int TILE_SHIFT = 6;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+    static final int TILE_MASK = TILE_SIZE - 1;
+
+    private final Long2ObjectOpenHashMap<long[]> tiles = new Long2ObjectOpenHashMap<>();
+
+    // sum of the hashes of the non-zero words, kept up to date as the words change
+    private long fingerprint;
+
+    static @NotNull SectionBitmap of(@NotNull LongSet sections) {
+        var bitmap = new SectionBitmap();
+
+        for (var iterator = sections.iterator(); iterator.hasNext(); ) {
+            long sectionKey = iterator.nextLong();
+            bitmap.add(SectionKeys.getX(sectionKey), SectionKeys.getZ(sectionKey));
+        }
+
+        return bitmap;
+    }
+
+    static @NotNull SectionBitmap of(long @NotNull [] sectionKeys) {
+        var bitmap = new SectionBitmap();
+
+        for (long sectionKey : sectionKeys) {
+            bitmap.add(SectionKeys.getX(sectionKey), SectionKeys.getZ(sectionKey));
+        }
+
+        return bitmap;
+    }
+
+    static long getTileKey(int sectionX, int sectionZ) {
+        return SectionKeys.getKey(sectionX >> TILE_SHIFT, sectionZ >> TILE_SHIFT);
+    }
+
+    boolean add(int x, int z) {
+        long[] tile = this.tiles.computeIfAbsent(getTileKey(x, z), ignored -> new long[TILE_SIZE]);
+        long bit = 1L << (x & TILE_MASK);
+        long word = tile[z & TILE_MASK];
+
+        if ((word & bit) != 0) {
+            return false;
+        }
+
+        setWord(getTileKey(x, z), tile, z & TILE_MASK, word | bit);
+        return true;
+    }
+
+    boolean remove(int x, int z) {
+        long tileKey = getTileKey(x, z);
+        long[] tile = this.tiles.get(tileKey);
+        long bit = 1L << (x & TILE_MASK);
+
+        if (tile == null || (tile[z & TILE_MASK] & bit) == 0) {
+            return false;
+        }
+
+        setWord(tileKey, tile, z & TILE_MASK, tile[z & TILE_MASK] & ~bit);
+
+        if (isEmpty(tile)) {
+            this.tiles.remove(tileKey);
+        }
+
+        return true;
+    }
+
+    boolean contains(int x, int z) {
+        long[] tile = this.tiles.get(getTileKey(x, z));
+        return tile != null && (tile[z & TILE_MASK] & (1L << (x & TILE_MASK))) != 0;
+    }
+
+    /**
+     * Adds every section from {@code (x1, z1)} to {@code (x2, z2)}, both inclusive, one word per row and tile.
+     */
+    void addRectangle(int x1, int z1, int x2, int z2) {
+        for (int tileZ = z1 >> TILE_SHIFT; tileZ <= z2 >> TILE_SHIFT; tileZ++) {
+            int rowFrom = Math.max(z1, tileZ << TILE_SHIFT) & TILE_MASK;
+            int rowTo = Math.min(z2, (tileZ << TILE_SHIFT) | TILE_MASK) & TILE_MASK;
+
+            for (int tileX = x1 >> TILE_SHIFT; tileX <= x2 >> TILE_SHIFT; tileX++) {
+                int bitFrom = Math.max(x1, tileX << TILE_SHIFT) & TILE_MASK;
+                int bitTo = Math.min(x2, (tileX << TILE_SHIFT) | TILE_MASK) & TILE_MASK;
+                long mask = (-1L >>> (TILE_MASK - bitTo)) & (-1L << bitFrom);
+
+                long tileKey = SectionKeys.getKey(tileX, tileZ);
+                long[] tile = this.tiles.computeIfAbsent(tileKey, ignored -> new long[TILE_SIZE]);
+
+                for (int row = rowFrom; row <= rowTo; row++) {
+                    setWord(tileKey, tile, row, tile[row] | mask);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every section whose key the filter rejects, asking the filter once per section.
+     */
+    void retainAll(@NotNull LongPredicate filter) {
+        for (var iterator = this.tiles.long2ObjectEntrySet().fastIterator(); iterator.hasNext(); ) {
+            var entry = iterator.next();
+            long tileKey = entry.getLongKey();
+            long[] tile = entry.getValue();
+            int baseX = SectionKeys.getX(tileKey) << TILE_SHIFT;
+            int baseZ = SectionKeys.getZ(tileKey) << TILE_SHIFT;
+            long any = 0;
+
+            for (int row = 0; row < TILE_SIZE; row++) {
+                long word = tile[row];
+
+                for (long bits = word; bits != 0; bits &= bits - 1) {
+                    if (!filter.test(SectionKeys.getKey(baseX + Long.numberOfTrailingZeros(bits), baseZ + row))) {
+                        word &= ~Long.lowestOneBit(bits);
+                    }
+                }
+
+                setWord(tileKey, tile, row, word);
+                any |= word;
+            }
+
+            if (any == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the cells of {@code factor x factor} sections that contain at least one section of this bitmap, each
+     * cell as one section of the returned bitmap.
+     * <p>
+     * The cells are anchored at the world origin, not at the sections, so a cell may cover up to {@code factor - 1}
+     * sections beyond the edge of the set, which can belong to another region, and islands up to
+     * {@code 2 * (factor - 1)} sections apart can end up in the same or adjacent cells and be joined.
+     */
+    @NotNull SectionBitmap coarsen(int factor) {
+        var coarse = new SectionBitmap();
+
+        for (var entry : this.tiles.long2ObjectEntrySet()) {
+            int baseX = SectionKeys.getX(entry.getLongKey()) << TILE_SHIFT;
+            int baseZ = SectionKeys.getZ(entry.getLongKey()) << TILE_SHIFT;
+            long[] tile = entry.getValue();
+
+            for (int row = 0; row < TILE_SIZE; row++) {
+                int cellZ = Math.floorDiv(baseZ + row, factor);
+
+                for (long word = tile[row]; word != 0; ) {
+                    int cellX = Math.floorDiv(baseX + Long.numberOfTrailingZeros(word), factor);
+                    coarse.add(cellX, cellZ);
+
+                    // skip the remaining sections of the same cell
+                    int next = (cellX + 1) * factor - baseX;
+                    word = next < TILE_SIZE ? word & (-1L << next) : 0;
+                }
+            }
+        }
+
+        return coarse;
+    }
+
+    @NotNull SectionBitmap copy() {
+        var copy = new SectionBitmap();
+
+        for (var entry : this.tiles.long2ObjectEntrySet()) {
+            copy.tiles.put(entry.getLongKey(), entry.getValue().clone());
+        }
+
+        copy.fingerprint = this.fingerprint;
+        return copy;
+    }
+
+    int size() {
+        int size = 0;
+
+        for (long[] tile : this.tiles.values()) {
+            for (long word : tile) {
+                size += Long.bitCount(word);
+            }
+        }
+
+        return size;
+    }
+
+    boolean isEmpty() {
+        return this.tiles.isEmpty();
+    }
+
+    void clear() {
+        this.tiles.clear();
+        this.fingerprint = 0;
+    }
+
+    /**
+     * Returns a hash of the sections that does not depend on the order in which they were added.
+     */
+    long fingerprint() {
+        return this.fingerprint;
+    }
+
+    private void setWord(long tileKey, long[] tile, int row, long word) {
+        this.fingerprint += hashWord(tileKey, row, word) - hashWord(tileKey, row, tile[row]);
+        tile[row] = word;
+    }
+
+    private static long hashWord(long tileKey, int row, long word) {
+        return word != 0 ? mix(mix(tileKey * TILE_SIZE + row) ^ word) : 0;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * Returns the tile, or {@code null} if the tile has no section. The array must not be modified.
+     */
+    long @Nullable [] getTile(long tileKey) {
+        return this.tiles.get(tileKey);
+    }
+
+    /**
+     * Returns the keys of the non-empty tiles, sorted by z, then by x.
+     */
+    long @NotNull [] getTileKeysRowMajor() {
+        long[] tileKeys = this.tiles.keySet().toLongArray();
+        SectionKeys.sortRowMajor(tileKeys, tileKeys.length);
+        return tileKeys;
+    }
+
+    /**
+     * Returns the tiles by their keys. The map and the arrays must not be modified.
+     */
+    @NotNull Long2ObjectMap<long[]> tiles() {
+        return this.tiles;
+    }
+
+    @NotNull LongSet toLongSet() {
+        var sections = new LongOpenHashSet(size());
+
+        for (var entry : this.tiles.long2ObjectEntrySet()) {
+            int baseX = SectionKeys.getX(entry.getLongKey()) << TILE_SHIFT;
+            int baseZ = SectionKeys.getZ(entry.getLongKey()) << TILE_SHIFT;
+            long[] tile = entry.getValue();
+
+            for (int row = 0; row < TILE_SIZE; row++) {
+                for (long word = tile[row]; word != 0; word &= word - 1) {
+                    sections.add(SectionKeys.getKey(baseX + Long.numberOfTrailingZeros(word), baseZ + row));
+                }
+            }
+        }
+
+        return sections;
+    }
+
+    static boolean isEmpty(long @NotNull [] tile) {
+        for (long word : tile) {
+            if (word != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof SectionBitmap other) || this.tiles.size() != other.tiles.size()) {
+            return false;
+        }
+
+        for (var entry : this.tiles.long2ObjectEntrySet()) {
+            if (!Arrays.equals(entry.getValue(), other.tiles.get(entry.getLongKey()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.fingerprint);
+    }
+}
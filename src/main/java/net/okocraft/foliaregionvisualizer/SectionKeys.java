@@ -0,0 +1,80 @@
+package net.okocraft.foliaregionvisualizer;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Section keys in the same layout as {@code CoordinateUtils#getChunkKey}, without depending on the server.
+ */
+final class SectionKeys {
+
+    private static final long ROW_MAJOR_FLIP = 0x80000000L;
+
+    private SectionKeys() {
+        throw new UnsupportedOperationException();
+    }
+
+    static long getKey(int x, int z) {
+        return ((long) z << 32) | (x & 0xFFFFFFFFL);
+    }
+
+    static int getX(long key) {
+        return (int) key;
+    }
+
+    static int getZ(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * Sorts the section keys by z, then by x.
+     */
+    static void sortRowMajor(long @NotNull [] keys, int length) {
+        for (int i = 0; i < length; i++) {
+            keys[i] ^= ROW_MAJOR_FLIP;
+        }
+
+        Arrays.sort(keys, 0, length);
+
+        for (int i = 0; i < length; i++) {
+            keys[i] ^= ROW_MAJOR_FLIP;
+        }
+    }
+
+    /**
+     * Adds the keys that are only in {@code next} to {@code added} and the keys that are only in {@code previous} to
+     * {@code removed}. Both arrays must be sorted by {@link #sortRowMajor(long[], int)}.
+     */
+    static void diffRowMajor(long @NotNull [] previous, long @NotNull [] next, @NotNull LongList added, @NotNull LongList removed) {
+        if (Arrays.equals(previous, next)) {
+            return;
+        }
+
+        int i = 0;
+        int j = 0;
+
+        while (i < previous.length && j < next.length) {
+            long previousKey = previous[i] ^ ROW_MAJOR_FLIP;
+            long nextKey = next[j] ^ ROW_MAJOR_FLIP;
+
+            if (previousKey == nextKey) {
+                i++;
+                j++;
+            } else if (previousKey < nextKey) {
+                removed.add(previous[i++]);
+            } else {
+                added.add(next[j++]);
+            }
+        }
+
+        while (i < previous.length) {
+            removed.add(previous[i++]);
+        }
+
+        while (j < next.length) {
+            added.add(next[j++]);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package net.okocraft.foliaregionvisualizer;
+
+import com.flowpowered.math.vector.Vector2d;
+import de.bluecolored.bluemap.api.math.Color;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the exact outlines of each world to a single file, for dashboards that read the regions without BlueMap.
+ * <p>
+ * A world's file is {@code <world>.geojson} or {@code <world>.bin} in {@code directory}, and is only written again
+ * when the outline or colour of one of its regions changed. It is encoded into a direct buffer kept for the world,
+ * written to a temporary file through a {@link FileChannel} and then moved over the old file, so a reader that
+ * memory-maps the file always sees a complete one.
+ * <p>
+ * The binary format is big-endian and only made of 32- and 64-bit fields:
+ * <pre>
+ * int32 magic, int32 version, int64 timestamp in milliseconds, int32 region count
+ * per region:  int64 region id, int32 colour as ARGB, int32 polygon count
+ * per polygon: int32 ring count, the outer ring first and its holes after it
+ * per ring:    int32 point count, then the points as int32 section x and int32 section z pairs
+ * </pre>
+ */
+final class SnapshotWriter implements RegionRenderer {
+
+    static final int MAGIC = 0x46525653; // FRVS
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 20;
+    private static final int REGION_HEADER_SIZE = 16;
+
+    private final Path directory;
+    private final Format format;
+    private final Logger logger;
+    private final Map<UUID, WorldFile> worldMap = new ConcurrentHashMap<>();
+
+    SnapshotWriter(@NotNull Path directory, @NotNull Format format, @NotNull Logger logger) {
+        this.directory = directory;
+        this.format = format;
+        this.logger = logger;
+    }
+
+    @Override
+    public @NotNull VisualizerService.UpdateResult render(@NotNull RenderFrame frame) {
+        var world = this.worldMap.computeIfAbsent(frame.worldUid(), ignored -> new WorldFile(this.directory.resolve(frame.worldName() + this.format.suffix)));
+        var hashes = new Long2LongOpenHashMap(frame.regions().size());
+        int polygonCount = 0;
+        int changedCount = 0;
+
+        for (var region : frame.regions()) {
+            var polygons = region.levels().get(0);
+            long hash = region.regionId();
+
+            for (var polygon : polygons) {
+                hash = VisualizerService.mixHash(hash, VisualizerService.hashMarker(region.sectionCount(), polygon, region.color()));
+            }
+
+            polygonCount += polygons.size();
+            hashes.put(region.regionId(), hash);
+
+            if (!world.hashes.containsKey(region.regionId()) || world.hashes.get(region.regionId()) != hash) {
+                changedCount++;
+            }
+        }
+
+        for (long regionId : world.hashes.keySet()) {
+            if (!hashes.containsKey(regionId)) {
+                changedCount++;
+            }
+        }
+
+        if (changedCount == 0 && world.written) {
+            return new VisualizerService.UpdateResult(polygonCount, 0);
+        }
+
+        var buffer = this.format == Format.BINARY ? encodeBinary(world, frame.regions()) : encodeGeoJson(world, frame.regions());
+
+        if (write(world.file, buffer)) {
+            world.hashes = hashes;
+            world.written = true;
+        } else {
+            world.hashes = new Long2LongOpenHashMap(); // written again on the next update
+            world.written = false;
+        }
+
+        return new VisualizerService.UpdateResult(polygonCount, changedCount);
+    }
+
+    @Override
+    public void clear() {
+        for (var world : this.worldMap.values()) {
+            try {
+                Files.deleteIfExists(world.file);
+            } catch (IOException e) {
+                this.logger.log(Level.WARNING, "Could not delete " + world.file, e);
+            }
+        }
+
+        this.worldMap.clear();
+    }
+
+    private static @NotNull ByteBuffer encodeBinary(@NotNull WorldFile world, @NotNull List<RenderFrame.Region> regions) {
+        int size = HEADER_SIZE;
+
+        for (var region : regions) {
+            size += REGION_HEADER_SIZE;
+
+            for (var polygon : region.levels().get(0)) {
+                size += Integer.BYTES + Integer.BYTES + polygon.outer().size() * 2 * Integer.BYTES;
+
+                for (var hole : polygon.holes()) {
+                    size += Integer.BYTES + hole.size() * 2 * Integer.BYTES;
+                }
+            }
+        }
+
+        var buffer = world.buffer(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(regions.size());
+
+        for (var region : regions) {
+            var polygons = region.levels().get(0);
+            buffer.putLong(region.regionId()).putInt(toArgb(region.color())).putInt(polygons.size());
+
+            for (var polygon : polygons) {
+                buffer.putInt(1 + polygon.holes().size());
+                putRing(buffer, polygon.outer());
+
+                for (var hole : polygon.holes()) {
+                    putRing(buffer, hole);
+                }
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    private static void putRing(@NotNull ByteBuffer buffer, @NotNull List<Vector2d> ring) {
+        buffer.putInt(ring.size());
+
+        for (var point : ring) {
+            // the corners of the outline are corners of sections
+            buffer.putInt((int) point.getX() >> 8).putInt((int) point.getY() >> 8);
+        }
+    }
+
+    private static @NotNull ByteBuffer encodeGeoJson(@NotNull WorldFile world, @NotNull List<RenderFrame.Region> regions) {
+        var out = new StringBuilder();
+        boolean first = true;
+        GeoJson.beginFeatureCollection(out);
+
+        for (var region : regions) {
+            for (var polygon : region.levels().get(0)) {
+                GeoJson.appendFeature(out, first, region, 0, polygon);
+                first = false;
+            }
+        }
+
+        GeoJson.endFeatureCollection(out);
+
+        // only ASCII is written, so every char is one byte
+        var buffer = world.buffer(out.length());
+        var result = StandardCharsets.UTF_8.newEncoder().encode(CharBuffer.wrap(out), buffer, true);
+
+        if (result.isError() || result.isOverflow()) {
+            throw new IllegalStateException("Could not encode the outlines: " + result);
+        }
+
+        return buffer.flip();
+    }
+
+    private boolean write(@NotNull Path file, @NotNull ByteBuffer buffer) {
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            Files.createDirectories(file.getParent());
+
+            try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            this.logger.log(Level.WARNING, "Could not write " + file, e);
+            return false;
+        }
+    }
+
+    private static int toArgb(@NotNull Color color) {
+        return Math.round(color.getAlpha() * 255) << 24 | color.getRed() << 16 | color.getGreen() << 8 | color.getBlue();
+    }
+
+    enum Format {
+        GEOJSON(".geojson"),
+        BINARY(".bin");
+
+        private final String suffix;
+
+        Format(@NotNull String suffix) {
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * The file of a world, only touched by the updates of the world.
+     */
+    private static final class WorldFile {
+
+        private final Path file;
+        private Long2LongOpenHashMap hashes = new Long2LongOpenHashMap();
+        private boolean written;
+        private @Nullable ByteBuffer buffer;
+
+        private WorldFile(@NotNull Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Returns the cleared buffer of the world, grown to at least {@code size} bytes.
+         */
+        private @NotNull ByteBuffer buffer(int size) {
+            var buffer = this.buffer;
+
+            if (buffer == null || buffer.capacity() < size) {
+                buffer = ByteBuffer.allocateDirect(Math.max(size, buffer != null ? buffer.capacity() + (buffer.capacity() >> 1) : 0));
+                this.buffer = buffer;
+            }
+
+            return buffer.clear();
+        }
+    }
+}
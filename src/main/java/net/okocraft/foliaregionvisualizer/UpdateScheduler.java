@@ -0,0 +1,102 @@
+package net.okocraft.foliaregionvisualizer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when each world is updated next.
+ * <p>
+ * The interval of a world backs off while its markers do not change, shrinks with the share of markers that changed,
+ * and never gets so short that updating the world takes more than the CPU budget.
+ */
+final class UpdateScheduler {
+
+    private static final long DEFAULT_INTERVAL_MILLIS = 5000;
+
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final double cpuBudget;
+    private final Map<UUID, WorldState> stateMap = new ConcurrentHashMap<>();
+
+    UpdateScheduler(long minIntervalMillis, long maxIntervalMillis, double cpuBudget) {
+        this.minIntervalMillis = Math.max(1, minIntervalMillis);
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+        this.cpuBudget = cpuBudget;
+    }
+
+    long getMinIntervalMillis() {
+        return this.minIntervalMillis;
+    }
+
+    boolean isDue(@NotNull UUID worldUid, long now) {
+        var state = this.stateMap.get(worldUid);
+        return state == null || state.nextUpdateAt <= now;
+    }
+
+    /**
+     * Returns the current interval between two updates of the world.
+     */
+    long getIntervalMillis(@NotNull UUID worldUid) {
+        var state = this.stateMap.get(worldUid);
+        return state != null ? state.intervalMillis : clamp(DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Records a finished update of the world and schedules the next one.
+     *
+     * @param tookNanos    how long the update took
+     * @param markerCount  the number of markers after the update
+     * @param changedCount the number of markers that were put or removed
+     */
+    void recordUpdate(@NotNull UUID worldUid, long tookNanos, int markerCount, int changedCount) {
+        var state = this.stateMap.computeIfAbsent(worldUid, ignored -> new WorldState(clamp(DEFAULT_INTERVAL_MILLIS)));
+        long interval = state.intervalMillis;
+
+        if (changedCount == 0) {
+            interval += interval >> 1;
+        } else {
+            double churn = (double) changedCount / Math.max(markerCount, changedCount);
+            interval = (long) (interval * (1 - Math.min(churn, 0.5)));
+        }
+
+        if (0 < this.cpuBudget) {
+            interval = Math.max(interval, (long) (TimeUnit.NANOSECONDS.toMillis(tookNanos) / this.cpuBudget));
+        }
+
+        interval = clamp(interval);
+        state.intervalMillis = interval;
+        state.nextUpdateAt = System.currentTimeMillis() + interval;
+    }
+
+    /**
+     * Schedules the next attempt after an update that failed or did not update the world, keeping the interval as it
+     * is. Recording it as an update without changes would back the interval off while the updates do not work.
+     */
+    void recordSkipped(@NotNull UUID worldUid) {
+        var state = this.stateMap.computeIfAbsent(worldUid, ignored -> new WorldState(clamp(DEFAULT_INTERVAL_MILLIS)));
+        state.nextUpdateAt = System.currentTimeMillis() + state.intervalMillis;
+    }
+
+    void retainWorlds(@NotNull Collection<UUID> worldUids) {
+        this.stateMap.keySet().retainAll(worldUids);
+    }
+
+    private long clamp(long interval) {
+        return Math.min(Math.max(interval, this.minIntervalMillis), this.maxIntervalMillis);
+    }
+
+    private static final class WorldState {
+
+        private volatile long intervalMillis;
+        private volatile long nextUpdateAt;
+
+        private WorldState(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package net.okocraft.foliaregionvisualizer;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Locale;
+
+class VisualizerCommand implements TabExecutor {
+
+    private static final List<String> SUBCOMMANDS = List.of("stats", "reset");
+
+    private final FoliaRegionVisualizerPlugin plugin;
+    private final Metrics metrics;
+
+    VisualizerCommand(@NotNull FoliaRegionVisualizerPlugin plugin, @NotNull Metrics metrics) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        var subcommand = args.length == 0 ? "stats" : args[0].toLowerCase(Locale.ROOT);
+
+        switch (subcommand) {
+            case "stats" -> sendStats(sender);
+            case "reset" -> {
+                this.metrics.reset();
+                sender.sendMessage("Metrics have been reset.");
+            }
+            default -> {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public @NotNull List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length != 1) {
+            return List.of();
+        }
+
+        var prefix = args[0].toLowerCase(Locale.ROOT);
+        return SUBCOMMANDS.stream().filter(subcommand -> subcommand.startsWith(prefix)).toList();
+    }
+
+    private void sendStats(@NotNull CommandSender sender) {
+        sender.sendMessage("Updates: " + this.metrics.getUpdates() + ", failed: " + this.metrics.getFailedUpdates() + ", regions: " + this.metrics.getRegions() +
+                ", sections: " + this.metrics.getSections() + ", points: " + this.metrics.getPoints());
+        sender.sendMessage("Markers put: " + this.metrics.getMarkersPut() + ", removed: " + this.metrics.getMarkersRemoved() +
+                ", heatmap markers put: " + this.metrics.getHeatmapMarkersPut() + ", removed: " + this.metrics.getHeatmapMarkersRemoved() +
+                ", lock retries: " + this.metrics.getLockRetries() +
+                ", merge cache hits: " + this.metrics.getMergeCacheHits() + ", misses: " + this.metrics.getMergeCacheMisses());
+
+        for (var stage : Metrics.Stage.values()) {
+            var histogram = this.metrics.getHistogram(stage);
+            sender.sendMessage(String.format(Locale.ROOT, "%-8s n=%d mean=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms",
+                    stage.name().toLowerCase(Locale.ROOT), histogram.count(), histogram.meanMillis(),
+                    histogram.percentileMillis(0.5), histogram.percentileMillis(0.99), histogram.maxMillis()));
+        }
+
+        for (var entry : this.metrics.getWorldStats().entrySet()) {
+            var stats = entry.getValue();
+            sender.sendMessage(String.format(Locale.ROOT, "%s: last update %.3fms, interval %dms, %d regions, %d sections, %d points",
+                    stats.worldName(), stats.lastUpdateNanos() / 1_000_000.0, this.plugin.getUpdateIntervalMillis(entry.getKey()),
+                    stats.regions(), stats.sections(), stats.points()));
+        }
+    }
+}
@@ -1,223 +1,496 @@
 package net.okocraft.foliaregionvisualizer;
 
-import ca.spottedleaf.concurrentutil.map.SWMRLong2ObjectHashTable;
 import com.flowpowered.math.vector.Vector2d;
-import de.bluecolored.bluemap.api.markers.ShapeMarker;
 import de.bluecolored.bluemap.api.math.Color;
-import de.bluecolored.bluemap.api.math.Shape;
-import io.papermc.paper.threadedregions.ThreadedRegionizer;
-import io.papermc.paper.util.CoordinateUtils;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.longs.Long2ReferenceOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
-import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
-import org.bukkit.GameMode;
 import org.bukkit.World;
 import org.bukkit.craftbukkit.v1_20_R1.CraftWorld;
-import org.bukkit.entity.Player;
-import org.bukkit.metadata.MetadataValue;
-import org.bukkit.potion.PotionEffectType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.IOException;
-import java.lang.invoke.MethodHandles;
-import java.lang.invoke.VarHandle;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class VisualizerService {
 
-    private static final VarHandle REGIONS_BY_ID;
+    private final List<RegionRenderer> renderers = new CopyOnWriteArrayList<>();
+    private final Map<UUID, Long2ObjectMap<RegionOutline>> outlineMap = new ConcurrentHashMap<>();
+    private final Map<UUID, Long2ObjectMap<RenderFrame.Region>> lastRegionMap = new ConcurrentHashMap<>();
+    private final Map<UUID, LongSet> deferredMap = new ConcurrentHashMap<>();
+    private final Set<UUID> updatingWorlds = ConcurrentHashMap.newKeySet();
+    private final ForkJoinPool mergePool;
+
+    RegionPalette palette = new RegionPalette(new Color("#1e90ff1a"), 32);
+    List<DetailLevel> detailLevels = List.of(new DetailLevel(1, 0));
+    MergeCache mergeCache = new MergeCache(1024, 5, TimeUnit.MINUTES);
+    boolean renderFullRegions = false;
+    long mergeBudgetNanos = 0;
+    Metrics metrics = new Metrics();
+    @Nullable LoadHeatmap heatmap;
+    @Nullable RegionRecorder recorder;
+    @Nullable PlayerTracker playerTracker;
+
+    VisualizerService(int mergeThreads) {
+        this.mergePool = new ForkJoinPool(mergeThreads);
+    }
+
+    void addRenderer(@NotNull RegionRenderer renderer) {
+        this.renderers.add(renderer);
+    }
+
+    void removeRenderer(@NotNull RegionRenderer renderer) {
+        this.renderers.remove(renderer);
+    }
+
+    /**
+     * Removes everything the renderers and the heatmap have published.
+     */
+    void clear() {
+        this.renderers.forEach(RegionRenderer::clear);
+
+        var heatmap = this.heatmap;
 
-    static {
-        try {
-            var threadedRegionizerClass = ThreadedRegionizer.class;
-            var sectionByKeyField = threadedRegionizerClass.getDeclaredField("regionsById");
-            REGIONS_BY_ID = MethodHandles.privateLookupIn(threadedRegionizerClass, MethodHandles.lookup()).unreflectVarHandle(sectionByKeyField);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
-            throw new ExceptionInInitializerError(e);
+        if (heatmap != null) {
+            heatmap.clear();
         }
     }
 
-    MarkerSetProvider markerSetProvider;
+    /**
+     * Marks the world as being updated.
+     *
+     * @return {@code false} if the previous update of the world has not finished yet
+     */
+    boolean tryStartUpdate(@NotNull UUID worldUid) {
+        return this.updatingWorlds.add(worldUid);
+    }
 
-    Color spawnColor = new Color("#1e90ff1a");
+    void finishUpdate(@NotNull UUID worldUid) {
+        this.updatingWorlds.remove(worldUid);
+    }
 
-    VisualizerService(@NotNull MarkerSetProvider markerSetProvider) {
-        this.markerSetProvider = markerSetProvider;
+    void shutdown() {
+        this.mergePool.shutdownNow();
     }
 
-    void update(@NotNull World w) {
+    /**
+     * Merges the regions of the world and hands them to every renderer that shows the world.
+     *
+     * @return the number of markers of the world and how many of them were put or removed, the most of any renderer
+     */
+    @NotNull UpdateResult update(@NotNull World w) {
         if (!(w instanceof CraftWorld world)) {
-            return;
+            return UpdateResult.SKIPPED;
         }
 
         var uid = world.getUID();
-        var markerSet = markerSetProvider.getOrCreate(uid);
+        List<RegionRenderer> renderers = new ArrayList<>(this.renderers.size());
+
+        for (var renderer : this.renderers) {
+            if (renderer.accepts(uid)) {
+                renderers.add(renderer);
+            }
+        }
+
+        if (renderers.isEmpty()) {
+            return UpdateResult.SKIPPED;
+        }
+
+        var metrics = this.metrics;
+        long updateStart = System.nanoTime();
 
-        if (markerSet == null) {
-            return;
+        var snapshot = RegionSnapshot.capture(world.getHandle().regioniser);
+        var recorder = this.recorder;
+
+        if (recorder != null) {
+            recorder.record(uid, System.currentTimeMillis(), snapshot);
         }
 
-        var regionInfoMap = visitRegion(world, spawnColor);
-        var unusedMarkerIds = new ObjectOpenHashSet<>(markerSet.getMarkers().keySet());
+        long visitStart = System.nanoTime();
+        metrics.recordStage(Metrics.Stage.SNAPSHOT, visitStart - updateStart);
 
-        if (false)
-            for (var entry : regionInfoMap.long2ObjectEntrySet()) {
-                var baseName = "region-" + entry.getLongKey();
-                var info = entry.getValue();
+        var regionInfoMap = this.renderFullRegions ? visitAllRegions(world, snapshot, this.palette) : visitRegion(world, snapshot, this.palette, getPlayerIndex(uid));
+        long mergeStart = System.nanoTime();
+        metrics.recordStage(Metrics.Stage.VISIT, mergeStart - visitStart);
 
-                List<Vector2d> points = FoliaRegionLazy2.merge(info.discoveredSectionKeys);
+        var levels = this.detailLevels;
+        boolean exact = false;
 
-                var id = createGlobalId(uid, baseName);
-                var marker = createMarkerBuilder(baseName, info.color).shape(new Shape(points), 0).position(points.get(0).toVector3());
+        for (var level : levels) {
+            exact |= level.tolerance() <= 1;
+        }
+
+        // keep the outlines of the regions that still exist, so only the changed sections are re-traced,
+        // and none at all if every level is simplified
+        var outlines = this.outlineMap.computeIfAbsent(uid, ignored -> new Long2ObjectOpenHashMap<>());
+
+        if (exact) {
+            outlines.keySet().retainAll(regionInfoMap.keySet());
+        } else {
+            outlines.clear();
+        }
 
-                unusedMarkerIds.remove(id);
-                markerSet.getMarkers().put(id, marker.build());
+        // each outline is only touched by its own task, and the world is never updated twice at the same time
+        var merges = new Long2ObjectOpenHashMap<ForkJoinTask<List<List<Polygon>>>>(regionInfoMap.size());
+        var cache = this.mergeCache;
+        long deadline = 0 < this.mergeBudgetNanos ? System.nanoTime() + this.mergeBudgetNanos : Long.MAX_VALUE;
+
+        // the regions that did not fit into the time budget last time are merged first
+        var previouslyDeferred = this.deferredMap.getOrDefault(uid, LongSet.of());
+        var deferred = new LongOpenHashSet();
+        this.deferredMap.put(uid, deferred);
+
+        var regionIds = new LongArrayList(regionInfoMap.size());
+        previouslyDeferred.forEach(regionId -> {
+            if (regionInfoMap.containsKey(regionId)) {
+                regionIds.add(regionId);
+            }
+        });
+        regionInfoMap.keySet().forEach(regionId -> {
+            if (!previouslyDeferred.contains(regionId)) {
+                regionIds.add(regionId);
             }
+        });
 
-        unusedMarkerIds.forEach(markerSet.getMarkers()::remove);
+        for (int i = 0; i < regionIds.size(); i++) {
+            long regionId = regionIds.getLong(i);
+            var outline = exact ? outlines.computeIfAbsent(regionId, ignored -> new RegionOutline()) : null;
+            var info = regionInfoMap.get(regionId);
 
-        var sections = Benchmark.createWTFSections(10);
+            merges.put(regionId, this.mergePool.submit(() -> {
+                if (deadline < System.nanoTime()) {
+                    return null;
+                }
+
+                if (outline != null) {
+                    outline.update(snapshot, info.regionIndex, info.visibleSections);
+                }
 
-        var points = FoliaRegionLazy2.merge(sections);
-        markerSet.put(createGlobalId(uid, "test"), createMarkerBuilder("test", spawnColor).shape(new Shape(points), 0).position(points.get(0).toVector3()).build());
+                List<List<Polygon>> shapes = new ArrayList<>(levels.size());
 
-        if (!written && false) {
-            written = true;
-            try (var writer = Files.newBufferedWriter(Path.of(System.currentTimeMillis() + ".txt"))) {
-                for (var point : points) {
-                    writer.write(((int) point.getX() >> 8) + ", " + ((int) point.getY() >> 8));
-                    writer.newLine();
+                for (var level : levels) {
+                    if (outline != null && level.tolerance() <= 1) {
+                        // the outline keeps its polygons while its sections do not change
+                        shapes.add(outline.outline.getPolygons());
+                    } else {
+                        var sections = info.visibleSections != null ? info.visibleSections : snapshot.getSectionBitmap(info.regionIndex);
+                        shapes.add(cache.merge(sections, level.tolerance()));
+                    }
                 }
-            } catch (IOException ignored) {
+
+                return shapes;
+            }));
+        }
+
+        var results = new Long2ObjectOpenHashMap<List<List<Polygon>>>(merges.size());
+        RuntimeException failure = null;
+
+        // every task is waited for, even after one failed, so no task still changes an outline when the next update
+        // of the world starts
+        for (var merge : merges.long2ObjectEntrySet()) {
+            var task = merge.getValue();
+            task.quietlyJoin();
+
+            if (!task.isCompletedAbnormally()) {
+                results.put(merge.getLongKey(), task.getRawResult());
+                continue;
+            }
+
+            // the outline may have been left half updated, so it is rebuilt from scratch on the next update
+            outlines.remove(merge.getLongKey());
+
+            var exception = task.getException();
+            var error = exception instanceof RuntimeException runtimeException ? runtimeException : new IllegalStateException(exception);
+
+            if (failure == null) {
+                failure = error;
+            } else {
+                failure.addSuppressed(error);
             }
         }
-    }
 
-    private boolean written = false;
+        if (failure != null) {
+            throw failure;
+        }
+
+        metrics.recordStage(Metrics.Stage.MERGE, System.nanoTime() - mergeStart);
 
-    private static @NotNull ShapeMarker.Builder createMarkerBuilder(@NotNull String name, @NotNull Color color) {
-        return ShapeMarker.builder()
-                .label(name)
-                .detail(name)
-                .lineColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), Math.min(color.getAlpha() + 0.3f, 1.0f)))
-                .fillColor(color)
-                .depthTestEnabled(false);
-    }
+        int totalSections = 0;
+        int totalPoints = 0;
 
-    private static Color getColorFromHueCircle(Color baseColor, float hueAngle) {
-        float[] hsbValues = java.awt.Color.RGBtoHSB(baseColor.getRed(), baseColor.getGreen(), baseColor.getBlue(), null);
-        float hue = (hsbValues[0] + hueAngle) % 1.0f;
-        return new Color(java.awt.Color.HSBtoRGB(hue, hsbValues[1], hsbValues[2]), baseColor.getAlpha());
-    }
+        // regions that were out of time are shown with their outlines from the last update
+        var lastRegions = this.lastRegionMap.getOrDefault(uid, Long2ObjectMaps.emptyMap());
+        var nextRegions = new Long2ObjectOpenHashMap<RenderFrame.Region>(regionInfoMap.size());
+        List<RenderFrame.Region> regions = new ArrayList<>(regionInfoMap.size());
+
+        for (var entry : regionInfoMap.long2ObjectEntrySet()) {
+            long regionId = entry.getLongKey();
+            var info = entry.getValue();
+            var shapes = results.get(regionId);
+
+            if (shapes == null) {
+                deferred.add(regionId);
+                var last = lastRegions.get(regionId);
+
+                if (last != null) {
+                    regions.add(last);
+                    nextRegions.put(regionId, last);
+                }
+
+                continue;
+            }
+
+            int sectionCount = info.visibleSections != null ? info.visibleSections.size() : snapshot.getSectionKeys(info.regionIndex).length;
+            int pointCount = 0;
+
+            for (var polygon : shapes.get(0)) {
+                pointCount += polygon.pointCount();
+            }
 
-    private static boolean isHidden(Player player) {
-        if (player.hasPotionEffect(PotionEffectType.INVISIBILITY) || player.getGameMode() == GameMode.SPECTATOR) {
-            return true;
+            metrics.recordRegion(sectionCount, pointCount);
+            totalSections += sectionCount;
+            totalPoints += pointCount;
+
+            var region = new RenderFrame.Region(regionId, info.color, sectionCount, shapes);
+            regions.add(region);
+            nextRegions.put(regionId, region);
+        }
+
+        this.lastRegionMap.put(uid, nextRegions);
+
+        // every renderer gets the same outlines, so nothing is merged twice
+        var frame = new RenderFrame(uid, world.getName(), levels, regions);
+        int markerCount = 0;
+        int changedCount = 0;
+        boolean rendered = false;
+
+        for (var renderer : renderers) {
+            var result = renderer.render(frame);
+
+            if (!result.skipped()) {
+                markerCount = Math.max(markerCount, result.markerCount());
+                changedCount = Math.max(changedCount, result.changedCount());
+                rendered = true;
+            }
+        }
+
+        var heatmap = this.heatmap;
+
+        if (heatmap != null) {
+            // whole regions are rendered with the tolerance of the heatmap, so it does not merge them again
+            Long2ObjectMap<List<Polygon>> wholeOutlines = null;
+
+            for (int level = 0; this.renderFullRegions && level < levels.size(); level++) {
+                if (Math.max(1, levels.get(level).tolerance()) == heatmap.getTolerance()) {
+                    wholeOutlines = new Long2ObjectOpenHashMap<>(nextRegions.size());
+
+                    for (var region : nextRegions.values()) {
+                        wholeOutlines.put(region.regionId(), region.levels().get(level));
+                    }
+
+                    break;
+                }
+            }
+
+            // a budget of its own, or the regions of the heatmap would never be merged once the renderers used theirs
+            long heatmapDeadline = 0 < this.mergeBudgetNanos ? System.nanoTime() + this.mergeBudgetNanos : Long.MAX_VALUE;
+            heatmap.update(uid, snapshot, wholeOutlines, cache, this.mergePool, heatmapDeadline);
         }
 
-        for (MetadataValue meta : player.getMetadata("vanished")) {
-            if (meta.asBoolean()) {
-                return true;
+        metrics.recordUpdate(uid, world.getName(), System.nanoTime() - updateStart, regionInfoMap.size(), totalSections, totalPoints);
+
+        return rendered ? new UpdateResult(markerCount, changedCount) : UpdateResult.SKIPPED;
+    }
+
+    static long hashMarker(int sectionCount, @NotNull Polygon polygon, @NotNull Color color) {
+        long hash = hashMarker(sectionCount, polygon.outer(), color);
+
+        for (var hole : polygon.holes()) {
+            hash = mixHash(hash, hole.size());
+
+            for (var point : hole) {
+                hash = mixHash(hash, SectionKeys.getKey((int) point.getX(), (int) point.getY()));
             }
         }
 
-        return false;
+        return hash;
+    }
+
+    static long hashMarker(int sectionCount, @NotNull List<Vector2d> points, @NotNull Color color) {
+        long hash = mixHash(sectionCount, ((long) color.getRed() << 24) | (color.getGreen() << 16) | (color.getBlue() << 8) | (int) (color.getAlpha() * 255));
+
+        for (var point : points) {
+            hash = mixHash(hash, SectionKeys.getKey((int) point.getX(), (int) point.getY()));
+        }
+
+        return hash;
     }
 
-    private static @Nullable ThreadedRegionizer.ThreadedRegion<?, ?> getRegionAt(@NotNull ThreadedRegionizer<?, ?> regionizer, int blockX, int blockZ) {
-        return regionizer.getRegionAtSynchronised(blockX >> 4, blockZ >> 4);
+    static long mixHash(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
     }
 
-    private static @NotNull Long2ObjectMap<RegionInfo> visitRegion(@NotNull CraftWorld world, @NotNull Color spawnColor) {
-        var regionizer = world.getHandle().regioniser;
+    private @Nullable PlayerIndex getPlayerIndex(@NotNull UUID worldUid) {
+        var tracker = this.playerTracker;
+        return tracker != null ? tracker.getIndex(worldUid) : null;
+    }
 
-        int regionCount = ((SWMRLong2ObjectHashTable<?>) REGIONS_BY_ID.getAcquire(regionizer)).size();
+    private static @NotNull Long2ObjectMap<RegionInfo> visitAllRegions(@NotNull CraftWorld world, @NotNull RegionSnapshot snapshot, @NotNull RegionPalette palette) {
+        int regionCount = snapshot.size();
         var regionInfoMap = new Long2ObjectOpenHashMap<RegionInfo>(regionCount);
-        int colorCounter = 0;
 
         var spawnLocation = world.getSpawnLocation();
-        var spawnRegion = getRegionAt(regionizer, spawnLocation.getBlockX(), spawnLocation.getBlockZ());
-        long spawnRegionId = spawnRegion != null ? spawnRegion.id : -1;
+        int spawnRegionIndex = snapshot.getRegionIndexAt(spawnLocation.getBlockX(), spawnLocation.getBlockZ());
+
+        for (int index = 0; index < regionCount; index++) {
+            long regionId = snapshot.getRegionId(index);
+            var color = index == spawnRegionIndex ? palette.getSpawnColor() : palette.getColor(regionId);
+            regionInfoMap.put(regionId, new RegionInfo(index, color, null, new AtomicBoolean()));
+        }
 
-        if (spawnRegion != null) {
-            var info = new RegionInfo(spawnRegion, spawnColor);
-            regionInfoMap.put(spawnRegionId, info);
+        return regionInfoMap;
+    }
+
+    private static @NotNull Long2ObjectMap<RegionInfo> visitRegion(@NotNull CraftWorld world, @NotNull RegionSnapshot snapshot, @NotNull RegionPalette palette,
+                                                                   @Nullable PlayerIndex playerIndex) {
+        int regionCount = snapshot.size();
+        var regionInfoMap = new Long2ObjectOpenHashMap<RegionInfo>(regionCount);
+
+        var spawnLocation = world.getSpawnLocation();
+        int spawnRegionIndex = snapshot.getRegionIndexAt(spawnLocation.getBlockX(), spawnLocation.getBlockZ());
+
+        if (spawnRegionIndex != -1) {
+            var info = new RegionInfo(spawnRegionIndex, palette.getSpawnColor());
+            regionInfoMap.put(snapshot.getRegionId(spawnRegionIndex), info);
             visit(info, spawnLocation.getBlockX() >> 8, spawnLocation.getBlockZ() >> 8);
         }
 
-        for (var player : world.getPlayers().toArray(Player[]::new)) {
-            if (isHidden(player)) {
+        // the players are read from the index, which their own region threads keep up to date
+        for (int slot = 0, limit = playerIndex != null ? playerIndex.limit() : 0; slot < limit; slot++) {
+            long state = playerIndex.getState(slot);
+
+            if (!PlayerIndex.isVisible(state)) {
                 continue;
             }
 
-            var location = player.getLocation();
-            int blockX = location.getBlockX();
-            int blockZ = location.getBlockZ();
+            int sectionX = PlayerIndex.getSectionX(state);
+            int sectionZ = PlayerIndex.getSectionZ(state);
 
-            var region = getRegionAt(regionizer, blockX, blockZ);
+            int regionIndex = snapshot.getRegionIndex(SectionKeys.getKey(sectionX, sectionZ));
 
-            if (region == null) {
+            if (regionIndex == -1) {
                 continue;
             }
 
-            RegionInfo info = regionInfoMap.get(region.id);
+            long regionId = snapshot.getRegionId(regionIndex);
+            RegionInfo info = regionInfoMap.get(regionId);
 
             if (info == null) {
-                info = new RegionInfo(region, getColorFromHueCircle(spawnColor, (float) ++colorCounter / regionCount));
-                regionInfoMap.put(region.id, info);
+                info = new RegionInfo(regionIndex, palette.getColor(regionId));
+                regionInfoMap.put(regionId, info);
             } else {
                 info.single.set(false);
             }
 
-            visit(info, blockX >> 8, blockZ >> 8);
+            visit(info, sectionX, sectionZ);
+        }
+
+        // the windows may reach into other regions, so each section they cover is looked up once, however many
+        // windows overlap it, instead of building the bitmap of the whole region
+        for (var info : regionInfoMap.values()) {
+            int regionIndex = info.regionIndex;
+            info.visibleSections.retainAll(sectionKey -> snapshot.getRegionIndex(sectionKey) == regionIndex);
         }
 
         return regionInfoMap;
     }
 
+    /**
+     * Adds the 9x9 window around the center, a word per row and tile, so overlapping windows are merged by the OR.
+     */
     private static void visit(@NotNull RegionInfo info, int centerSectionX, int centerSectionZ) {
-        for (int offsetX = -4; offsetX <= 4; offsetX++) {
-            for (int offsetZ = -4; offsetZ <= 4; offsetZ++) {
-                int sectionX1 = centerSectionX + offsetX;
-                int sectionZ1 = centerSectionZ + offsetZ;
-                long sectionKey = CoordinateUtils.getChunkKey(sectionX1, sectionZ1);
-
-                if (info.regionSectionKeys.containsKey(sectionKey)) {
-                    info.discoveredSectionKeys.add(sectionKey);
-                }
-            }
-        }
+        info.visibleSections.addRectangle(centerSectionX - 4, centerSectionZ - 4, centerSectionX + 4, centerSectionZ + 4);
     }
 
-    private static @NotNull String createGlobalId(@NotNull UUID worldUid, @NotNull String baseName) {
-        return "!FoliaRegionVisualizer#" + worldUid + ":" + baseName;
+    /**
+     * An outline simplified to a grid of {@code tolerance} sections, shown when the camera is at least
+     * {@code minDistance} blocks away.
+     * <p>
+     * A tolerance above 1 may make the outline reach up to {@code tolerance - 1} sections into neighbouring regions,
+     * which is why such levels are meant to be seen from far away only.
+     */
+    record DetailLevel(int tolerance, double minDistance) {
     }
 
-    private record RegionInfo(@NotNull Long2ReferenceOpenHashMap<?> regionSectionKeys, @NotNull Color color,
-                              @NotNull LongSet discoveredSectionKeys, @NotNull AtomicBoolean single) {
+    /**
+     * @param skipped whether the world was not updated at all, because no renderer shows it
+     */
+    record UpdateResult(int markerCount, int changedCount, boolean skipped) {
 
-        private static final VarHandle SECTION_BY_KEY_HANDLE;
+        static final UpdateResult SKIPPED = new UpdateResult(0, 0, true);
 
-        static {
-            try {
-                var threadedRegionClass = ThreadedRegionizer.ThreadedRegion.class;
-                var sectionByKeyField = threadedRegionClass.getDeclaredField("sectionByKey");
-                SECTION_BY_KEY_HANDLE = MethodHandles.privateLookupIn(threadedRegionClass, MethodHandles.lookup()).unreflectVarHandle(sectionByKeyField);
-            } catch (IllegalAccessException | NoSuchFieldException e) {
-                throw new ExceptionInInitializerError(e);
+        UpdateResult(int markerCount, int changedCount) {
+            this(markerCount, changedCount, false);
+        }
+    }
+
+    /**
+     * The outline of a region, with the sorted keys it was last updated to when the whole region is shown.
+     */
+    private static final class RegionOutline {
+
+        private final IncrementalOutline outline = new IncrementalOutline();
+        private long @Nullable [] sectionKeys;
+
+        /**
+         * Applies the sections that were added or removed since the last update. A whole region is compared by its
+         * sorted keys, so neither its bitmap is built nor all its words compared again.
+         */
+        void update(@NotNull RegionSnapshot snapshot, int regionIndex, @Nullable SectionBitmap visibleSections) {
+            if (visibleSections != null) {
+                this.outline.update(visibleSections);
+                this.sectionKeys = null;
+                return;
             }
+
+            var sectionKeys = snapshot.getSectionKeys(regionIndex);
+
+            if (this.sectionKeys == null) {
+                this.outline.update(snapshot.getSectionBitmap(regionIndex));
+            } else {
+                var added = new LongArrayList();
+                var removed = new LongArrayList();
+                SectionKeys.diffRowMajor(this.sectionKeys, sectionKeys, added, removed);
+                this.outline.update(added, removed);
+            }
+
+            this.sectionKeys = sectionKeys;
         }
+    }
+
+    /**
+     * The visible sections are {@code null} when the whole region is shown, so its bitmap is only built if a level
+     * needs it.
+     */
+    private record RegionInfo(int regionIndex, @NotNull Color color,
+                              @Nullable SectionBitmap visibleSections, @NotNull AtomicBoolean single) {
 
-        public RegionInfo(@NotNull ThreadedRegionizer.ThreadedRegion<?, ?> region, @NotNull Color color) {
-            this((Long2ReferenceOpenHashMap<?>) SECTION_BY_KEY_HANDLE.get(region), color, new LongOpenHashSet(), new AtomicBoolean());
+        public RegionInfo(int regionIndex, @NotNull Color color) {
+            this(regionIndex, color, new SectionBitmap(), new AtomicBoolean());
         }
     }
 